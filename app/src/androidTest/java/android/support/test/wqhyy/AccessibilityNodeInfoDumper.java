@@ -18,13 +18,13 @@ package android.support.test.wqhyy;
 
 import android.graphics.Rect;
 import android.util.Log;
-import android.util.Xml;
 import android.view.accessibility.AccessibilityNodeInfo;
 
-import org.xmlpull.v1.XmlSerializer;
-
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * @hide
@@ -38,67 +38,329 @@ class AccessibilityNodeInfoDumper {
     };
 
     public static void dumpWindowHierarchy(UiDevice device, OutputStream out) throws IOException {
-        XmlSerializer serializer = Xml.newSerializer();
-        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
-        serializer.setOutput(out, "UTF-8");
+        dumpWindowHierarchy(device, out, UiDevice.HIERARCHY_FORMAT_XML);
+    }
+
+    /**
+     * @param format {@link UiDevice#HIERARCHY_FORMAT_XML} or {@link UiDevice#HIERARCHY_FORMAT_JSON}
+     */
+    public static void dumpWindowHierarchy(UiDevice device, OutputStream out, String format) throws IOException {
+        dumpWindowHierarchy(device, out, format, new HierarchyFilter());
+    }
+
+    /**
+     * @param format {@link UiDevice#HIERARCHY_FORMAT_XML} or {@link UiDevice#HIERARCHY_FORMAT_JSON}
+     * @param filter the depth, packages, root, region and kinds of nodes to dump
+     */
+    public static void dumpWindowHierarchy(UiDevice device, OutputStream out, String format,
+                                           HierarchyFilter filter) throws IOException {
+        dump(device, HierarchyWriter.create(format, out), filter);
+    }
+
+    /**
+     * @param filter the depth, packages, root, region and kinds of nodes to capture
+     * @return the nodes that pass the filter, parents before their children
+     */
+    public static List<HierarchyNode> captureWindowHierarchy(UiDevice device, HierarchyFilter filter)
+            throws IOException {
+        HierarchyNodeRecorder recorder = new HierarchyNodeRecorder();
+        dump(device, recorder, filter);
+        return recorder.getNodes();
+    }
 
-        serializer.startDocument("UTF-8", true);
-        serializer.startTag("", "hierarchy"); // TODO(allenhair): Should we use a namespace?
-        serializer.attribute("", "rotation", Integer.toString(device.getDisplayRotation()));
+    private static void dump(UiDevice device, final HierarchyWriter writer, final HierarchyFilter filter)
+            throws IOException {
+        NodeTraversal.DUMP.begin();
+        writer.startHierarchy(device.getDisplayRotation());
 
-        for (AccessibilityNodeInfo root : device.getWindowRoots()) {
-            dumpNodeRec(root, serializer, 0, device.getDisplayWidth(), device.getDisplayHeight());
+        final int width = device.getDisplayWidth();
+        final int height = device.getDisplayHeight();
+        AccessibilityNodeInfo[] roots;
+        int rootIndex = 0;
+        if (filter.getRoot() != null) {
+            AccessibilityNodeInfo root = device.getAutomatorBridge().getQueryController()
+                    .findAccessibilityNodeInfo(filter.getRoot());
+            roots = root != null ? new AccessibilityNodeInfo[]{root} : new AccessibilityNodeInfo[0];
+            if (root != null) {
+                rootIndex = indexInParent(root);
+            }
+        } else {
+            roots = device.getWindowRoots();
         }
+        if (roots.length == 1) {
+            try {
+                new TreeDump(writer, filter, width, height).dumpNodeRec(roots[0], rootIndex, 0);
+            } finally {
+                // The node the root selector found is ours; window roots are left as before
+                if (filter.getRoot() != null) {
+                    roots[0].recycle();
+                }
+            }
+        } else if (roots.length > 1) {
+            // Dump the other windows concurrently into separate fragments while the first one is
+            // written straight to the output, then append them in root order
+            List<Future<HierarchyWriter>> fragments = WindowRoots.submit(roots, 1, new WindowRoots.Walk<HierarchyWriter>() {
+                @Override
+                public HierarchyWriter walk(AccessibilityNodeInfo root) throws IOException {
+                    HierarchyWriter fragment = writer.newFragment();
+                    new TreeDump(fragment, filter, width, height).dumpNodeRec(root, 0, 0);
+                    fragment.flush();
+                    return fragment;
+                }
+            });
+            try {
+                new TreeDump(writer, filter, width, height).dumpNodeRec(roots[0], 0, 0);
+                writer.flush();
+                for (Future<HierarchyWriter> fragment : fragments) {
+                    writer.writeFragment(WindowRoots.await(fragment));
+                }
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            } finally {
+                WindowRoots.cancel(fragments, 0);
+            }
+        }
+
+        writer.endHierarchy();
+    }
 
-        serializer.endTag("", "hierarchy");
-        serializer.endDocument();
+    /**
+     * @return the position of the node among the children of its parent, or 0 for a window root
+     */
+    private static int indexInParent(AccessibilityNodeInfo node) {
+        AccessibilityNodeInfo parent = NodeTraversal.DUMP.getParent(node);
+        if (parent == null) {
+            return 0;
+        }
+        try {
+            int count = parent.getChildCount();
+            for (int i = 0; i < count; i++) {
+                AccessibilityNodeInfo child = NodeTraversal.DUMP.getChild(parent, i);
+                if (child == null) {
+                    continue;
+                }
+                boolean same = child.equals(node);
+                child.recycle();
+                if (same) {
+                    return i;
+                }
+            }
+            return 0;
+        } finally {
+            parent.recycle();
+        }
     }
 
-    private static void dumpNodeRec(AccessibilityNodeInfo node, XmlSerializer serializer, int index,
-                                    int width, int height) throws IOException {
-        if (node == null){
-            return;
-        }
-        serializer.startTag("", "node");
-        Rect rect = android.support.test.wqhyy.AccessibilityNodeInfoHelper.getVisibleBoundsInScreen(node, width, height);
-
-        if (rect.left<width && rect.top<height){
-            if (!nafExcludedClass(node) && !nafCheck(node))
-                serializer.attribute("", "NAF", Boolean.toString(true));
-            serializer.attribute("", "index", Integer.toString(index));
-            serializer.attribute("", "text", safeCharSeqToString(node.getText()));
-            serializer.attribute("", "resource-id", safeCharSeqToString(node.getViewIdResourceName()));
-            serializer.attribute("", "class", safeCharSeqToString(node.getClassName()));
-            serializer.attribute("", "package", safeCharSeqToString(node.getPackageName()));
-            serializer.attribute("", "content-desc", safeCharSeqToString(node.getContentDescription()));
-            serializer.attribute("", "checkable", Boolean.toString(node.isCheckable()));
-            serializer.attribute("", "checked", Boolean.toString(node.isChecked()));
-            serializer.attribute("", "clickable", Boolean.toString(node.isClickable()));
-            serializer.attribute("", "enabled", Boolean.toString(node.isEnabled()));
-            serializer.attribute("", "focusable", Boolean.toString(node.isFocusable()));
-            serializer.attribute("", "focused", Boolean.toString(node.isFocused()));
-            serializer.attribute("", "scrollable", Boolean.toString(node.isScrollable()));
-            serializer.attribute("", "long-clickable", Boolean.toString(node.isLongClickable()));
-            serializer.attribute("", "password", Boolean.toString(node.isPassword()));
-            serializer.attribute("", "selected", Boolean.toString(node.isSelected()));
-            serializer.attribute("", "bounds", rect.toShortString());
-        }
-        int count = node.getChildCount();
-        for (int i = 0; i < count; i++) {
-            AccessibilityNodeInfo child = node.getChild(i);
-            if (child != null) {
-                if (child.isVisibleToUser()) {
-                    dumpNodeRec(child, serializer, i, width, height);
-                    child.recycle();
+    /**
+     * Walks one window root in a single pass. Nodes on the current path are written only once
+     * the filter accepts a node at or below them, so interactive only dumps leave out subtrees
+     * with nothing to show.
+     *
+     * Whether a clickable node without text or description is NAF depends on its descendants, so
+     * from such a node on the output is held back until its subtree has been walked; the labels
+     * of the children it visits decide, and only children the dump skips are fetched again.
+     */
+    static class TreeDump {
+        private final HierarchyWriter mWriter;
+        private final HierarchyFilter mFilter;
+        private final int mWidth;
+        private final int mHeight;
+        private final List<Frame> mPath = new ArrayList<Frame>();
+        private int mWritten;
+        // Number of NAF candidates on the path; while positive, output goes to mPending
+        private int mCandidates;
+        // Held back output: a frame starts its node, null ends the last started one
+        private final List<Frame> mPending = new ArrayList<Frame>();
+        private final List<AccessibilityNodeInfo> mRetained = new ArrayList<AccessibilityNodeInfo>();
+
+        private static final class Frame {
+            final AccessibilityNodeInfo node;
+            final int index;
+            final Rect bounds;
+            // Clickable, enabled, on screen and unlabelled: NAF unless a descendant has a label
+            final boolean candidate;
+            // The node or one of the descendants seen so far has a label
+            boolean labelled;
+
+            Frame(AccessibilityNodeInfo node, int index, Rect bounds, boolean candidate, boolean labelled) {
+                this.node = node;
+                this.index = index;
+                this.bounds = bounds;
+                this.candidate = candidate;
+                this.labelled = labelled;
+            }
+        }
+
+        TreeDump(HierarchyWriter writer, HierarchyFilter filter, int width, int height) {
+            mWriter = writer;
+            mFilter = filter;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        /**
+         * @return true if the node or one of its descendants has a text or content description
+         */
+        boolean dumpNodeRec(AccessibilityNodeInfo node, int index, int depth) throws IOException {
+            if (node == null){
+                return false;
+            }
+            Rect rect = android.support.test.wqhyy.AccessibilityNodeInfoHelper.getVisibleBoundsInScreen(node, mWidth, mHeight);
+            if (!(rect.left<mWidth && rect.top<mHeight)){
+                rect = null;
+            }
+            if (!mFilter.accepts(node, rect)) {
+                return needsLabel() && hasLabelRec(node);
+            }
+
+            boolean labelled = hasLabel(node);
+            Frame frame = new Frame(node, index, rect, rect != null && !labelled && node.isClickable()
+                    && node.isEnabled() && !nafExcludedClass(node), labelled);
+            mPath.add(frame);
+            if (frame.candidate) {
+                mCandidates++;
+            }
+            if (mFilter.writes(node)) {
+                writePath();
+            }
+            boolean descends = mFilter.descends(depth);
+            int count = getChildCount(node);
+            for (int i = 0; i < count; i++) {
+                if (!descends && !needsLabel()) {
+                    break;
+                }
+                AccessibilityNodeInfo child = getChild(node, i);
+                if (child != null) {
+                    if (descends && child.isVisibleToUser()) {
+                        frame.labelled |= dumpNodeRec(child, i, depth + 1);
+                    } else {
+                        if (descends) {
+                            Log.i(LOGTAG, String.format("Skipping invisible child: %s", child.toString()));
+                        }
+                        // Skipped children still count for the NAF check of their ancestors
+                        if (needsLabel()) {
+                            frame.labelled |= hasLabelRec(child);
+                        }
+                    }
+                    release(child);
                 } else {
-                    Log.i(LOGTAG, String.format("Skipping invisible child: %s", child.toString()));
+                    Log.i(LOGTAG, String.format("Null child %d/%d, parent: %s",
+                            i, count, node.toString()));
                 }
+            }
+            if (frame.candidate) {
+                mCandidates--;
+            }
+            if (mWritten == mPath.size()) {
+                endNode(frame);
+                mWritten--;
+            }
+            mPath.remove(mPath.size() - 1);
+            return frame.labelled;
+        }
+
+        /**
+         * Whether the label of a node the dump skips can still change the output: only while
+         * the nearest NAF candidate on the path is undecided. A label already seen at or below
+         * that candidate decides it and, through it, every candidate above.
+         */
+        private boolean needsLabel() {
+            if (mCandidates == 0) {
+                return false;
+            }
+            for (int i = mPath.size() - 1; i >= 0; i--) {
+                Frame frame = mPath.get(i);
+                if (frame.labelled) {
+                    return false;
+                }
+                if (frame.candidate) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void writePath() throws IOException {
+            for (; mWritten < mPath.size(); mWritten++) {
+                Frame frame = mPath.get(mWritten);
+                if (mPending.isEmpty() && !frame.candidate) {
+                    mWriter.startNode(frame.node, frame.index, frame.bounds, false);
+                } else {
+                    mPending.add(frame);
+                }
+            }
+        }
+
+        private void endNode(Frame frame) throws IOException {
+            if (mPending.isEmpty()) {
+                mWriter.endNode();
+                return;
+            }
+            mPending.add(null);
+            if (frame.candidate && mCandidates == 0) {
+                // The outermost candidate is complete, so every held back node is decided
+                for (Frame pending : mPending) {
+                    if (pending == null) {
+                        mWriter.endNode();
+                    } else {
+                        mWriter.startNode(pending.node, pending.index, pending.bounds,
+                                pending.candidate && !pending.labelled);
+                    }
+                }
+                mPending.clear();
+                for (AccessibilityNodeInfo retained : mRetained) {
+                    retained.recycle();
+                }
+                mRetained.clear();
+            }
+        }
+
+        /**
+         * Fetches the subtree of a node the dump does not walk, until a text or
+         * content-description is found.
+         *
+         * @return true if the node or one of its descendants has a label.
+         */
+        private boolean hasLabelRec(AccessibilityNodeInfo node) {
+            if (hasLabel(node))
+                return true;
+            int childCount = getChildCount(node);
+            for (int x = 0; x < childCount; x++) {
+                AccessibilityNodeInfo childNode = getChild(node, x);
+
+                if (childNode == null) {
+                    Log.i(LOGTAG, String.format("Null child %d/%d, parent: %s",
+                            x, childCount, node.toString()));
+                    continue;
+                }
+
+                boolean labelled = hasLabelRec(childNode);
+                childNode.recycle();
+                if (labelled)
+                    return true;
+            }
+            return false;
+        }
+
+        /** The tree is read only through these two, so a test can walk nodes not on screen. */
+        int getChildCount(AccessibilityNodeInfo node) {
+            return node.getChildCount();
+        }
+
+        AccessibilityNodeInfo getChild(AccessibilityNodeInfo node, int index) {
+            return NodeTraversal.DUMP.getChild(node, index);
+        }
+
+        /** Recycles a child once no held back output refers to it. */
+        private void release(AccessibilityNodeInfo child) {
+            if (mPending.isEmpty()) {
+                child.recycle();
             } else {
-                Log.i(LOGTAG, String.format("Null child %d/%d, parent: %s",
-                        i, count, node.toString()));
+                mRetained.add(child);
             }
         }
-        serializer.endTag("", "node");
     }
 
     /**
@@ -123,59 +385,20 @@ class AccessibilityNodeInfoDumper {
      * text nor content-description. Such controls configuration indicate an
      * interactive control is present in the UI and is most likely not
      * accessibility friendly. We refer to such controls here as NAF controls
-     * (Not Accessibility Friendly)
+     * (Not Accessibility Friendly). A containing element that is clickable
+     * but counts on one of its descendants for the text or description is
+     * considered acceptable; {@link TreeDump} decides that from the children
+     * it walks.
      *
      * @param node
-     * @return false if a node fails the check, true if all is OK
+     * @return true if the node has a text or content-description
      */
-    private static boolean nafCheck(AccessibilityNodeInfo node) {
-        boolean isNaf = node.isClickable() && node.isEnabled()
-                && safeCharSeqToString(node.getContentDescription()).isEmpty()
-                && safeCharSeqToString(node.getText()).isEmpty();
-
-        if (!isNaf)
-            return true;
-
-        // check children since sometimes the containing element is clickable
-        // and NAF but a child's text or description is available. Will assume
-        // such layout as fine.
-        return childNafCheck(node);
+    private static boolean hasLabel(AccessibilityNodeInfo node) {
+        return !safeCharSeqToString(node.getContentDescription()).isEmpty()
+                || !safeCharSeqToString(node.getText()).isEmpty();
     }
 
-    /**
-     * This should be used when it's already determined that the node is NAF and
-     * a further check of its children is in order. A node maybe a container
-     * such as LinerLayout and may be set to be clickable but have no text or
-     * content description but it is counting on one of its children to fulfill
-     * the requirement for being accessibility friendly by having one or more of
-     * its children fill the text or content-description. Such a combination is
-     * considered by this dumper as acceptable for accessibility.
-     *
-     * @param node
-     * @return false if node fails the check.
-     */
-    private static boolean childNafCheck(AccessibilityNodeInfo node) {
-        int childCount = node.getChildCount();
-        for (int x = 0; x < childCount; x++) {
-            AccessibilityNodeInfo childNode = node.getChild(x);
-
-            if (childNode == null) {
-                Log.i(LOGTAG, String.format("Null child %d/%d, parent: %s",
-                        x, childCount, node.toString()));
-                continue;
-            }
-
-            if (!safeCharSeqToString(childNode.getContentDescription()).isEmpty()
-                    || !safeCharSeqToString(childNode.getText()).isEmpty())
-                return true;
-
-            if (childNafCheck(childNode))
-                return true;
-        }
-        return false;
-    }
-
-    private static String safeCharSeqToString(CharSequence cs) {
+    static String safeCharSeqToString(CharSequence cs) {
         if (cs == null)
             return "";
         else {
@@ -183,39 +406,43 @@ class AccessibilityNodeInfoDumper {
         }
     }
 
+    /**
+     * Replaces non-characters and unassigned control codes with '.' and drops
+     * characters XML attributes cannot hold. Most strings need neither, so they
+     * are returned without copying.
+     */
     private static String stripInvalidXMLChars(CharSequence cs) {
-        StringBuilder ret = new StringBuilder();
-        char ch;
-
-        for (int i = 0; i < cs.length(); i++) {
-            ch = cs.charAt(i);
-
-            if ((ch >= 0x1 && ch <= 0x8) || (ch >= 0xB && ch <= 0xC) || (ch >= 0xE && ch <= 0x1F) ||
-                    (ch >= 0x7F && ch <= 0x84) || (ch >= 0x86 && ch <= 0x9f) ||
-                    (ch >= 0xFDD0 && ch <= 0xFDDF) || (ch >= 0x1FFFE && ch <= 0x1FFFF) ||
-                    (ch >= 0x2FFFE && ch <= 0x2FFFF) || (ch >= 0x3FFFE && ch <= 0x3FFFF) ||
-                    (ch >= 0x4FFFE && ch <= 0x4FFFF) || (ch >= 0x5FFFE && ch <= 0x5FFFF) ||
-                    (ch >= 0x6FFFE && ch <= 0x6FFFF) || (ch >= 0x7FFFE && ch <= 0x7FFFF) ||
-                    (ch >= 0x8FFFE && ch <= 0x8FFFF) || (ch >= 0x9FFFE && ch <= 0x9FFFF) ||
-                    (ch >= 0xAFFFE && ch <= 0xAFFFF) || (ch >= 0xBFFFE && ch <= 0xBFFFF) ||
-                    (ch >= 0xCFFFE && ch <= 0xCFFFF) || (ch >= 0xDFFFE && ch <= 0xDFFFF) ||
-                    (ch >= 0xEFFFE && ch <= 0xEFFFF) || (ch >= 0xFFFFE && ch <= 0xFFFFF) ||
-                    (ch >= 0x10FFFE && ch <= 0x10FFFF)){
-                ret.append(".");
-            }
-            else if (	Character.isDefined(ch) &&
-                    ch!= '&' && ch != '<' && ch != '>' &&
-                    !Character.isHighSurrogate(ch) &&
-                    !Character.isISOControl(ch) &&
-                    !Character.isLowSurrogate(ch)
-                    ){
-                ret.append(ch);
-            }
-//            else {
-//                ret.append(ch);
-//            }
+        int length = cs.length();
+        int i = 0;
+        while (i < length && isKept(cs.charAt(i)))
+            i++;
+        if (i == length)
+            return cs.toString();
 
+        StringBuilder ret = new StringBuilder(length);
+        ret.append(cs, 0, i);
+        for (; i < length; i++) {
+            char ch = cs.charAt(i);
+            if (isReplaced(ch))
+                ret.append('.');
+            else if (isKept(ch))
+                ret.append(ch);
         }
         return ret.toString();
     }
+
+    private static boolean isKept(char ch) {
+        return !isReplaced(ch) && Character.isDefined(ch) &&
+                ch != '&' && ch != '<' && ch != '>' &&
+                !Character.isHighSurrogate(ch) &&
+                !Character.isISOControl(ch) &&
+                !Character.isLowSurrogate(ch);
+    }
+
+    // The non-characters above U+FFFF cannot occur in a single char, so only BMP ranges remain
+    private static boolean isReplaced(char ch) {
+        return (ch >= 0x1 && ch <= 0x8) || (ch >= 0xB && ch <= 0xC) || (ch >= 0xE && ch <= 0x1F) ||
+                (ch >= 0x7F && ch <= 0x84) || (ch >= 0x86 && ch <= 0x9f) ||
+                (ch >= 0xFDD0 && ch <= 0xFDDF);
+    }
 }
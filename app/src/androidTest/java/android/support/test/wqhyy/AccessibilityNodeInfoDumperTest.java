@@ -0,0 +1,166 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the string cleanup of the XML dump and the NAF decision of
+ * {@link AccessibilityNodeInfoDumper.TreeDump} on trees built from unconnected nodes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AccessibilityNodeInfoDumperTest {
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 1000;
+
+    @Test
+    public void cleanStringsAreNotCopied() {
+        String clean = "Settings - Wi-Fi (5 GHz) 100%";
+        assertSame(clean, AccessibilityNodeInfoDumper.safeCharSeqToString(clean));
+    }
+
+    @Test
+    public void invalidCharactersAreStripped() {
+        assertEquals("", AccessibilityNodeInfoDumper.safeCharSeqToString(null));
+        assertEquals("ab", AccessibilityNodeInfoDumper.safeCharSeqToString("a&<>b"));
+        assertEquals("a.b", AccessibilityNodeInfoDumper.safeCharSeqToString("a\u0001b"));
+        assertEquals("ok", AccessibilityNodeInfoDumper.safeCharSeqToString("o😀k"));
+    }
+
+    @Test
+    public void clickableWithLabelledChildIsNotNaf() throws Exception {
+        Node tree = clickable("frame").add(label("OK"));
+        assertEquals(Arrays.asList("frame", "OK", "/", "/"), dump(tree, new HierarchyFilter()));
+    }
+
+    @Test
+    public void clickableWithoutLabelIsNaf() throws Exception {
+        Node tree = clickable("frame").add(node("image"));
+        assertEquals(Arrays.asList("frame NAF", "image", "/", "/"), dump(tree, new HierarchyFilter()));
+    }
+
+    @Test
+    public void nestedCandidatesAreDecidedSeparately() throws Exception {
+        Node tree = node("root").add(clickable("outer")
+                .add(clickable("inner").add(node("icon")))
+                .add(label("Title")));
+        assertEquals(Arrays.asList("root", "outer", "inner NAF", "icon", "/", "/", "Title", "/", "/", "/"),
+                dump(tree, new HierarchyFilter()));
+    }
+
+    @Test
+    public void labelBelowMaxDepthStillCounts() throws Exception {
+        Node tree = clickable("frame").add(node("row").add(label("OK")));
+        assertEquals(Arrays.asList("frame", "/"), dump(tree, new HierarchyFilter().setMaxDepth(0)));
+    }
+
+    @Test
+    public void interactiveOnlyKeepsAncestorsOfWrittenNodes() throws Exception {
+        Node tree = node("root").add(node("decor")).add(node("list").add(clickable("row").add(label("OK"))));
+        assertEquals(Arrays.asList("root", "list", "row", "/", "/", "/"),
+                dump(tree, new HierarchyFilter().setInteractiveOnly(true)));
+    }
+
+    private static List<String> dump(final Node tree, HierarchyFilter filter) throws Exception {
+        final Map<AccessibilityNodeInfo, Node> nodes = new IdentityHashMap<AccessibilityNodeInfo, Node>();
+        nodes.put(tree.info, tree);
+        RecordingWriter writer = new RecordingWriter();
+        new AccessibilityNodeInfoDumper.TreeDump(writer, filter, WIDTH, HEIGHT) {
+            @Override
+            int getChildCount(AccessibilityNodeInfo node) {
+                return nodes.get(node).children.size();
+            }
+
+            @Override
+            AccessibilityNodeInfo getChild(AccessibilityNodeInfo node, int index) {
+                Node child = nodes.get(node).children.get(index);
+                // The dump recycles the children it fetches, so hand out copies
+                AccessibilityNodeInfo copy = AccessibilityNodeInfo.obtain(child.info);
+                nodes.put(copy, child);
+                return copy;
+            }
+        }.dumpNodeRec(tree.info, 0, 0);
+        return writer.events;
+    }
+
+    private static Node node(String className) {
+        return new Node(className, null, false);
+    }
+
+    private static Node label(String text) {
+        return new Node("android.widget.TextView", text, false);
+    }
+
+    private static Node clickable(String className) {
+        return new Node(className, null, true);
+    }
+
+    private static final class Node {
+        final AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain();
+        final List<Node> children = new ArrayList<Node>();
+
+        Node(String className, String text, boolean clickable) {
+            info.setClassName(className);
+            info.setText(text);
+            info.setClickable(clickable);
+            info.setEnabled(true);
+            info.setVisibleToUser(true);
+            info.setBoundsInScreen(new Rect(0, 0, 100, 100));
+        }
+
+        Node add(Node child) {
+            children.add(child);
+            return this;
+        }
+    }
+
+    /** Records each started node as its text or class, with " NAF" if flagged, and "/" per end. */
+    private static final class RecordingWriter extends HierarchyWriter {
+        final List<String> events = new ArrayList<String>();
+
+        @Override
+        void startHierarchy(int rotation) {
+        }
+
+        @Override
+        void endHierarchy() {
+        }
+
+        @Override
+        HierarchyWriter newFragment() {
+            return new RecordingWriter();
+        }
+
+        @Override
+        void writeFragment(HierarchyWriter fragment) {
+            events.addAll(((RecordingWriter) fragment).events);
+        }
+
+        @Override
+        void startNode(AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) {
+            CharSequence name = node.getText() != null ? node.getText() : node.getClassName();
+            events.add(naf ? name + " NAF" : name.toString());
+        }
+
+        @Override
+        void endNode() {
+            events.add("/");
+        }
+
+        @Override
+        void flush() {
+        }
+    }
+}
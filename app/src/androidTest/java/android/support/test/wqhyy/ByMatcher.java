@@ -67,13 +67,18 @@ class ByMatcher {
 
         // TODO: Don't short-circuit when debugging, and warn if more than one match.
         ByMatcher matcher = new ByMatcher(device, selector, true);
-        for (AccessibilityNodeInfo root : roots) {
-            List<AccessibilityNodeInfo> matches = matcher.findMatches(root);
-            if (!matches.isEmpty()) {
-                return matches.get(0);
-            }
+        NodeTraversal.SEARCH.begin();
+        if (roots.length == 1) {
+            List<AccessibilityNodeInfo> matches = matcher.findMatches(roots[0]);
+            return matches.isEmpty() ? null : matches.get(0);
+        }
+        AccessibilityNodeInfo match = matcher.findFirstMatch(roots);
+        if (match == null) {
+            // Run watchers and retry
+            device.runWatchers();
+            match = matcher.findFirstMatch(roots);
         }
-        return null;
+        return match;
     }
 
     /**
@@ -91,12 +96,60 @@ class ByMatcher {
 
         List<AccessibilityNodeInfo> ret = new ArrayList<AccessibilityNodeInfo>();
         ByMatcher matcher = new ByMatcher(device, selector, false);
-        for (AccessibilityNodeInfo root : roots) {
-            ret.addAll(matcher.findMatches(root));
+        NodeTraversal.SEARCH.begin();
+        if (roots.length == 1) {
+            return matcher.findMatches(roots[0]);
+        }
+        for (List<AccessibilityNodeInfo> matches : matcher.findAllMatches(roots)) {
+            ret.addAll(matches);
+        }
+        if (ret.isEmpty()) {
+            // Run watchers and retry
+            device.runWatchers();
+            for (List<AccessibilityNodeInfo> matches : matcher.findAllMatches(roots)) {
+                ret.addAll(matches);
+            }
         }
         return ret;
     }
 
+    /**
+     * Searches every root concurrently and returns the first match in root order. The searches
+     * of later roots are cancelled as soon as an earlier root has a match.
+     */
+    private AccessibilityNodeInfo findFirstMatch(AccessibilityNodeInfo[] roots) {
+        try {
+            return WindowRoots.walkFirst(roots, new WindowRoots.Walk<AccessibilityNodeInfo>() {
+                @Override
+                public AccessibilityNodeInfo walk(AccessibilityNodeInfo root) {
+                    List<AccessibilityNodeInfo> matches =
+                            findMatches(root, 0, 0, new SinglyLinkedList<PartialMatch>());
+                    return matches.isEmpty() ? null : matches.get(0);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Searches every root concurrently and returns the matches of each root, in root order. */
+    private List<List<AccessibilityNodeInfo>> findAllMatches(AccessibilityNodeInfo[] roots) {
+        try {
+            return WindowRoots.walkAll(roots, new WindowRoots.Walk<List<AccessibilityNodeInfo>>() {
+                @Override
+                public List<AccessibilityNodeInfo> walk(AccessibilityNodeInfo root) {
+                    return findMatches(root, 0, 0, new SinglyLinkedList<PartialMatch>());
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Traverses the {@link AccessibilityNodeInfo} hierarchy starting at {@code root}, and returns
      * a list of nodes which match the {@code selector} criteria. <br />
@@ -157,7 +210,9 @@ class ByMatcher {
         int numChildren = node.getChildCount();
         boolean hasNullChild = false;
         for (int i = 0; i < numChildren; i++) {
-            AccessibilityNodeInfo child = node.getChild(i);
+            // Stop when a concurrent search of an earlier window has already matched
+            Cancellation.check();
+            AccessibilityNodeInfo child = NodeTraversal.SEARCH.getChild(node, i);
             if (child == null) {
                 if (!hasNullChild) {
                     Log.w(TAG, String.format("Node returned null child: %s", node.toString()));
@@ -192,6 +247,12 @@ class ByMatcher {
         if (criteria == null) {
             return true;
         }
+        // Exact-value criteria are built with Pattern.quote; compare those as plain strings.
+        String regex = criteria.pattern();
+        if (criteria.flags() == 0 && regex.startsWith("\\Q") && regex.indexOf("\\E") == regex.length() - 2) {
+            String actual = value != null ? value.toString() : "";
+            return actual.length() == regex.length() - 4 && regex.regionMatches(2, actual, 0, actual.length());
+        }
         return criteria.matcher(value != null ? value : "").matches();
     }
 
@@ -263,11 +324,11 @@ class ByMatcher {
             // parameter in place in case matching on index is really needed.
 
             PartialMatch ret = null;
-            if (checkCriteria(selector.mClazz, node.getClassName()) &&
-                    checkCriteria(selector.mDesc, node.getContentDescription()) &&
+            // Most selective and cheapest criteria first: ids, classes and packages rule out
+            // most nodes before any text is compared.
+            if (checkCriteria(selector.mRes, node.getViewIdResourceName()) &&
+                    checkCriteria(selector.mClazz, node.getClassName()) &&
                     checkCriteria(selector.mPkg, node.getPackageName()) &&
-                    checkCriteria(selector.mRes, node.getViewIdResourceName()) &&
-                    checkCriteria(selector.mText, node.getText()) &&
                     checkCriteria(selector.mChecked, node.isChecked()) &&
                     checkCriteria(selector.mCheckable, node.isCheckable()) &&
                     checkCriteria(selector.mClickable, node.isClickable()) &&
@@ -276,7 +337,9 @@ class ByMatcher {
                     checkCriteria(selector.mFocusable, node.isFocusable()) &&
                     checkCriteria(selector.mLongClickable, node.isLongClickable()) &&
                     checkCriteria(selector.mScrollable, node.isScrollable()) &&
-                    checkCriteria(selector.mSelected, node.isSelected())) {
+                    checkCriteria(selector.mSelected, node.isSelected()) &&
+                    checkCriteria(selector.mDesc, node.getContentDescription()) &&
+                    checkCriteria(selector.mText, node.getText())) {
 
                 ret = new PartialMatch(selector, absoluteDepth);
             }
@@ -0,0 +1,43 @@
+package android.support.test.wqhyy;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets long running waits, scrolls and gestures stop when their thread is interrupted.
+ *
+ * {@link android.os.SystemClock#sleep(long)} swallows interrupts until the full delay has passed,
+ * so polling loops use {@link #sleep(long)} and check between steps with {@link #check()}.
+ */
+public final class Cancellation {
+    private Cancellation() {
+    }
+
+    /**
+     * @throws CancellationException if the current thread was interrupted; the interrupt is cleared
+     */
+    public static void check() {
+        if (Thread.interrupted()) {
+            throw new CancellationException("Operation cancelled");
+        }
+    }
+
+    /**
+     * @return true if the current thread was interrupted; the interrupt is kept
+     */
+    public static boolean isRequested() {
+        return Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Sleeps like {@link android.os.SystemClock#sleep(long)} but stops on interrupt.
+     *
+     * @throws CancellationException if the current thread is interrupted while sleeping
+     */
+    public static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new CancellationException("Operation cancelled");
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits what {@link UiDevice#dumpWindowHierarchy(java.io.OutputStream, String, HierarchyFilter)}
+ * walks and writes. Subtrees cut off by the depth, package, root or clip settings are not fetched
+ * at all; interactive only dumps still walk the tree but write just the interactive nodes and
+ * their ancestors.
+ */
+public final class HierarchyFilter {
+    private int mMaxDepth = -1;
+    private Set<String> mPackages;
+    private android.support.test.wqhyy.UiSelector mRoot;
+    private Rect mClip;
+    private boolean mInteractiveOnly;
+
+    /**
+     * Dumps nodes at most the given number of levels below their window root; a negative depth,
+     * the default, dumps the whole tree.
+     *
+     * @return self
+     */
+    public HierarchyFilter setMaxDepth(int maxDepth) {
+        mMaxDepth = maxDepth;
+        return this;
+    }
+
+    public int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * Dumps only nodes of the given packages; null or empty, the default, dumps every package.
+     *
+     * @return self
+     */
+    public HierarchyFilter setPackages(String... packages) {
+        mPackages = packages == null || packages.length == 0 ? null : new HashSet<String>(Arrays.asList(packages));
+        return this;
+    }
+
+    /**
+     * Dumps only the subtree under the first match of the selector in the active window, in
+     * place of every window root. Nothing is dumped if the selector has no match. The match keeps
+     * its index among its siblings, and node ids start at it rather than at the window
+     * root.
+     *
+     * @return self
+     */
+    public HierarchyFilter setRoot(android.support.test.wqhyy.UiSelector root) {
+        mRoot = root;
+        return this;
+    }
+
+    public android.support.test.wqhyy.UiSelector getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Dumps only nodes whose visible bounds intersect the given screen rectangle.
+     *
+     * @return self
+     */
+    public HierarchyFilter setClip(Rect clip) {
+        mClip = clip == null ? null : new Rect(clip);
+        return this;
+    }
+
+    /**
+     * Dumps only clickable, long clickable, scrollable, checkable and editable nodes, with their
+     * ancestors to keep the tree connected.
+     *
+     * @return self
+     */
+    public HierarchyFilter setInteractiveOnly(boolean interactiveOnly) {
+        mInteractiveOnly = interactiveOnly;
+        return this;
+    }
+
+    public boolean isInteractiveOnly() {
+        return mInteractiveOnly;
+    }
+
+    boolean descends(int depth) {
+        return mMaxDepth < 0 || depth < mMaxDepth;
+    }
+
+    boolean accepts(AccessibilityNodeInfo node, Rect visibleBounds) {
+        if (mPackages != null) {
+            CharSequence pkg = node.getPackageName();
+            if (pkg == null || !mPackages.contains(pkg.toString()))
+                return false;
+        }
+        return mClip == null || (visibleBounds != null && Rect.intersects(mClip, visibleBounds));
+    }
+
+    boolean writes(AccessibilityNodeInfo node) {
+        return !mInteractiveOnly || node.isClickable() || node.isLongClickable() || node.isScrollable()
+                || node.isCheckable() || node.isEditable();
+    }
+}
@@ -0,0 +1,141 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+/**
+ * The attributes of one node of a window hierarchy dump, detached from the live hierarchy.
+ *
+ * The id names the node by its window and the sibling keys leading to it. A key is the entry
+ * of the resource id, or else the class name without its package, followed by the number of
+ * earlier siblings with the same key: "12/DecorView#0/list#0/TextView#2" is the third unnamed
+ * TextView in the list of window 12. Inserting or removing a sibling only renumbers the later
+ * siblings that share its key, so a new row at the top of a list still changes the ids of the
+ * rows below it, but not of the views around the list. A dump limited to a root selector starts
+ * the path at the matched node.
+ */
+public final class HierarchyNode {
+    public static final int CHECKABLE = 1;
+    public static final int CHECKED = 1 << 1;
+    public static final int CLICKABLE = 1 << 2;
+    public static final int ENABLED = 1 << 3;
+    public static final int FOCUSABLE = 1 << 4;
+    public static final int FOCUSED = 1 << 5;
+    public static final int SCROLLABLE = 1 << 6;
+    public static final int LONG_CLICKABLE = 1 << 7;
+    public static final int PASSWORD = 1 << 8;
+    public static final int SELECTED = 1 << 9;
+    public static final int NAF = 1 << 10;
+
+    private final String mId;
+    private final String mParentId;
+    private final int mIndex;
+    private final String mText;
+    private final String mResourceId;
+    private final String mClassName;
+    private final String mPackageName;
+    private final String mContentDescription;
+    private final int mFlags;
+    private final Rect mBounds;
+
+    /**
+     * @param key the key of the node with its number among the siblings of that key
+     */
+    HierarchyNode(String parentId, String key, AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) {
+        mId = parentId != null ? parentId + "/" + key : windowId(node) + "/" + key;
+        mParentId = parentId;
+        mIndex = index;
+        mText = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getText());
+        mResourceId = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getViewIdResourceName());
+        mClassName = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getClassName());
+        mPackageName = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getPackageName());
+        mContentDescription = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getContentDescription());
+        mFlags = flags(node, naf);
+        mBounds = bounds != null ? new Rect(bounds) : null;
+    }
+
+    /**
+     * @return the resource id entry of the node, or its class name without the package
+     */
+    static String key(AccessibilityNodeInfo node) {
+        String resourceId = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getViewIdResourceName());
+        if (!resourceId.isEmpty())
+            return resourceId.substring(resourceId.lastIndexOf('/') + 1);
+        String className = AccessibilityNodeInfoDumper.safeCharSeqToString(node.getClassName());
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
+    private static int windowId(AccessibilityNodeInfo node) {
+        // Before API 21 only the active window is dumped
+        return Build.VERSION.SDK_INT >= 21 ? node.getWindowId() : 0;
+    }
+
+    static int flags(AccessibilityNodeInfo node, boolean naf) {
+        int flags = 0;
+        if (node.isCheckable()) flags |= CHECKABLE;
+        if (node.isChecked()) flags |= CHECKED;
+        if (node.isClickable()) flags |= CLICKABLE;
+        if (node.isEnabled()) flags |= ENABLED;
+        if (node.isFocusable()) flags |= FOCUSABLE;
+        if (node.isFocused()) flags |= FOCUSED;
+        if (node.isScrollable()) flags |= SCROLLABLE;
+        if (node.isLongClickable()) flags |= LONG_CLICKABLE;
+        if (node.isPassword()) flags |= PASSWORD;
+        if (node.isSelected()) flags |= SELECTED;
+        if (naf) flags |= NAF;
+        return flags;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /** @return the id of the parent node, or null for a root */
+    public String getParentId() {
+        return mParentId;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public String getResourceId() {
+        return mResourceId;
+    }
+
+    public String getClassName() {
+        return mClassName;
+    }
+
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    public String getContentDescription() {
+        return mContentDescription;
+    }
+
+    /** @return the boolean attributes, one bit each from {@link #CHECKABLE} to {@link #NAF} */
+    public int getFlags() {
+        return mFlags;
+    }
+
+    /** @return the visible bounds, or null if the node is off screen */
+    public Rect getBounds() {
+        return mBounds == null ? null : new Rect(mBounds);
+    }
+
+    /** @return true if the other node has the same id and attributes */
+    public boolean sameAs(HierarchyNode other) {
+        return mId.equals(other.mId) && mIndex == other.mIndex && mFlags == other.mFlags
+                && mText.equals(other.mText) && mResourceId.equals(other.mResourceId)
+                && mClassName.equals(other.mClassName) && mPackageName.equals(other.mPackageName)
+                && mContentDescription.equals(other.mContentDescription)
+                && (mBounds == null ? other.mBounds == null : mBounds.equals(other.mBounds));
+    }
+}
@@ -0,0 +1,72 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the dumped nodes as {@link HierarchyNode}s instead of writing them out.
+ */
+class HierarchyNodeRecorder extends HierarchyWriter {
+    private final List<HierarchyNode> mNodes = new ArrayList<HierarchyNode>();
+    private final List<String> mPath = new ArrayList<String>();
+    // For the roots and each open node, how many children so far had each key
+    private final List<Map<String, Integer>> mSiblingKeys = new ArrayList<Map<String, Integer>>();
+
+    HierarchyNodeRecorder() {
+        mSiblingKeys.add(new HashMap<String, Integer>());
+    }
+
+    List<HierarchyNode> getNodes() {
+        return mNodes;
+    }
+
+    @Override
+    void startHierarchy(int rotation) {
+    }
+
+    @Override
+    void endHierarchy() {
+    }
+
+    @Override
+    HierarchyWriter newFragment() {
+        return new HierarchyNodeRecorder();
+    }
+
+    @Override
+    void writeFragment(HierarchyWriter fragment) {
+        mNodes.addAll(((HierarchyNodeRecorder) fragment).mNodes);
+    }
+
+    @Override
+    void startNode(AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) {
+        String parentId = mPath.isEmpty() ? null : mPath.get(mPath.size() - 1);
+        String key = HierarchyNode.key(node);
+        Map<String, Integer> siblings = mSiblingKeys.get(mSiblingKeys.size() - 1);
+        // Roots of different windows never share a path, so they are counted per window
+        String counted = parentId == null && Build.VERSION.SDK_INT >= 21 ? node.getWindowId() + "/" + key : key;
+        Integer earlier = siblings.get(counted);
+        siblings.put(counted, earlier == null ? 1 : earlier + 1);
+        HierarchyNode record = new HierarchyNode(parentId, key + "#" + (earlier == null ? 0 : earlier),
+                node, index, bounds, naf);
+        mNodes.add(record);
+        mPath.add(record.getId());
+        mSiblingKeys.add(new HashMap<String, Integer>());
+    }
+
+    @Override
+    void endNode() {
+        mPath.remove(mPath.size() - 1);
+        mSiblingKeys.remove(mSiblingKeys.size() - 1);
+    }
+
+    @Override
+    void flush() {
+    }
+}
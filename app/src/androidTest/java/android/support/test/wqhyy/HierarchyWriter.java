@@ -0,0 +1,47 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a window hierarchy dump in one of the formats named in
+ * {@link UiDevice#HIERARCHY_FORMAT_XML} and {@link UiDevice#HIERARCHY_FORMAT_JSON}.
+ *
+ * A fragment writer from {@link #newFragment()} holds only the nodes of one window root, without
+ * the document around them, so that windows dumped concurrently can be spliced into the
+ * document with {@link #writeFragment(HierarchyWriter)}.
+ */
+abstract class HierarchyWriter {
+
+    static HierarchyWriter create(String format, OutputStream out) throws IOException {
+        if (format == null || format.isEmpty() || UiDevice.HIERARCHY_FORMAT_XML.equals(format))
+            return new XmlHierarchyWriter(out);
+        if (UiDevice.HIERARCHY_FORMAT_JSON.equals(format))
+            return new JsonHierarchyWriter(out, false);
+        throw new IllegalArgumentException("Unknown hierarchy format: " + format);
+    }
+
+    abstract void startHierarchy(int rotation) throws IOException;
+
+    abstract void endHierarchy() throws IOException;
+
+    /** @return a writer of the same format for one window root, to be passed to {@link #writeFragment(HierarchyWriter)} */
+    abstract HierarchyWriter newFragment() throws IOException;
+
+    /** Appends the nodes of a flushed fragment writer as the next window root. */
+    abstract void writeFragment(HierarchyWriter fragment) throws IOException;
+
+    /**
+     * @param bounds visible bounds of the node, or null if the node is off screen and its
+     *               attributes are left out
+     * @param naf true if the node is not accessibility friendly
+     */
+    abstract void startNode(AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) throws IOException;
+
+    abstract void endNode() throws IOException;
+
+    abstract void flush() throws IOException;
+}
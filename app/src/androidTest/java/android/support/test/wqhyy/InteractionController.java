@@ -493,7 +493,8 @@ class InteractionController {
             SystemClock.sleep(mUiAutomatorBridge.getSystemLongPressTime());
         for(int i = 1; i < swipeSteps; i++) {
             ret &= touchMove(downX + (int)(xStep * i), downY + (int)(yStep * i));
-            if(ret == false)
+            // a cancelled swipe still lifts the finger below
+            if(ret == false || Cancellation.isRequested())
                 break;
             // set some known constant delay between steps as without it this
             // become completely dependent on the speed of the system and results
@@ -504,6 +505,7 @@ class InteractionController {
         if (drag)
             SystemClock.sleep(REGULAR_CLICK_LENGTH);
         ret &= touchUp(upX, upY);
+        Cancellation.check();
         return(ret);
     }
 
@@ -538,7 +540,7 @@ class InteractionController {
                 for(int i = 1; i < swipeSteps; i++) {
                     ret &= touchMove(segments[seg].x + (int)(xStep * i),
                             segments[seg].y + (int)(yStep * i));
-                    if(ret == false)
+                    if(ret == false || Cancellation.isRequested())
                         break;
                     // set some known constant delay between steps as without it this
                     // become completely dependent on the speed of the system and results
@@ -549,6 +551,7 @@ class InteractionController {
             }
         }
         ret &= touchUp(segments[segments.length - 1].x, segments[segments.length -1].y);
+        Cancellation.check();
         return(ret);
     }
 
@@ -776,12 +779,16 @@ class InteractionController {
                     0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
 
             ret &= injectEventSync(event);
+            if (Cancellation.isRequested())
+                break;
             SystemClock.sleep(MOTION_EVENT_INJECTION_DELAY_MILLIS);
         }
 
-        // For each pointer get the last coordinates
-        for (int x = 0; x < touches.length; x++)
-            pointerCoords[x] = touches[x][touches[x].length - 1];
+        // For each pointer get the last coordinates, a cancelled gesture lifts where it stopped
+        if (!Cancellation.isRequested()) {
+            for (int x = 0; x < touches.length; x++)
+                pointerCoords[x] = touches[x][touches[x].length - 1];
+        }
 
         // touch up
         for (int x = 1; x < touches.length; x++) {
@@ -796,6 +803,7 @@ class InteractionController {
         event = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), MotionEvent.ACTION_UP, 1,
                 properties, pointerCoords, 0, 0, 1, 1, 0, 0, InputDevice.SOURCE_TOUCHSCREEN, 0);
         ret &= injectEventSync(event);
+        Cancellation.check();
         return ret;
     }
 
@@ -0,0 +1,203 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact JSON format holding the same information as the XML dump:
+ * <pre>
+ * {"rotation":0,"keys":{...},"flags":[...],"windows":[node, ...]}
+ * node: {"i":index,"t":text,"r":resource-id,"c":class,"p":package,"d":content-desc,
+ *        "f":flags,"b":[left,top,right,bottom],"n":[child, ...]}
+ * </pre>
+ * Empty text, content-desc and resource-id are left out. Bit k of "f" is the k-th entry of
+ * "flags", as in {@link HierarchyNode#getFlags()}. Resource ids, classes and packages are
+ * interned per window: the first use of a string writes it, later uses write its position among
+ * the strings first written in that window.
+ * Nodes that are off screen carry only "n", as their XML counterpart carries no attributes.
+ * Unlike XML attributes, JSON strings can hold any character, so strings are written unchanged
+ * rather than stripped like in the XML dump; emoji and '&', '<', '>' are kept.
+ */
+class JsonHierarchyWriter extends HierarchyWriter {
+    private static final String HEADER = "\"keys\":{\"i\":\"index\",\"t\":\"text\",\"r\":\"resource-id\","
+            + "\"c\":\"class\",\"p\":\"package\",\"d\":\"content-desc\",\"f\":\"flags\",\"b\":\"bounds\","
+            + "\"n\":\"children\"},"
+            + "\"flags\":[\"checkable\",\"checked\",\"clickable\",\"enabled\",\"focusable\",\"focused\","
+            + "\"scrollable\",\"long-clickable\",\"password\",\"selected\",\"NAF\"],";
+
+    private final OutputStream mOut;
+    private final Writer mWriter;
+    private final boolean mFragment;
+    private final Map<String, Integer> mStrings = new HashMap<String, Integer>();
+    private boolean[] mHasChildren = new boolean[32];
+    private boolean[] mHasAttributes = new boolean[32];
+    private int mDepth;
+    private int mWindows;
+
+    JsonHierarchyWriter(OutputStream out, boolean fragment) throws IOException {
+        mOut = out;
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+        mFragment = fragment;
+    }
+
+    @Override
+    void startHierarchy(int rotation) throws IOException {
+        mWriter.write("{\"rotation\":");
+        mWriter.write(Integer.toString(rotation));
+        mWriter.write(',');
+        mWriter.write(HEADER);
+        mWriter.write("\"windows\":[");
+    }
+
+    @Override
+    void endHierarchy() throws IOException {
+        mWriter.write("]}");
+        mWriter.flush();
+    }
+
+    @Override
+    HierarchyWriter newFragment() throws IOException {
+        return new JsonHierarchyWriter(new ByteArrayOutputStream(), true);
+    }
+
+    @Override
+    void writeFragment(HierarchyWriter fragment) throws IOException {
+        ByteArrayOutputStream nodes = (ByteArrayOutputStream) ((JsonHierarchyWriter) fragment).mOut;
+        // A window left out entirely by a filter has no nodes to separate
+        if (nodes.size() == 0)
+            return;
+        if (mWindows++ > 0)
+            mWriter.write(',');
+        mWriter.flush();
+        nodes.writeTo(mOut);
+    }
+
+    @Override
+    void startNode(AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) throws IOException {
+        if (mDepth == 0) {
+            if (mWindows++ > 0 && !mFragment)
+                mWriter.write(',');
+            mStrings.clear();
+        } else if (mHasChildren[mDepth - 1]) {
+            mWriter.write(',');
+        } else {
+            mHasChildren[mDepth - 1] = true;
+            mWriter.write(mHasAttributes[mDepth - 1] ? ",\"n\":[" : "\"n\":[");
+        }
+        if (mDepth == mHasChildren.length) {
+            boolean[] grown = new boolean[mDepth * 2];
+            System.arraycopy(mHasChildren, 0, grown, 0, mDepth);
+            mHasChildren = grown;
+            grown = new boolean[mDepth * 2];
+            System.arraycopy(mHasAttributes, 0, grown, 0, mDepth);
+            mHasAttributes = grown;
+        }
+        mHasChildren[mDepth] = false;
+        mHasAttributes[mDepth] = bounds != null;
+        mDepth++;
+
+        mWriter.write('{');
+        if (bounds == null)
+            return;
+        mWriter.write("\"i\":");
+        mWriter.write(Integer.toString(index));
+        writeOptional("t", node.getText());
+        writeInterned("r", node.getViewIdResourceName(), true);
+        writeInterned("c", node.getClassName(), false);
+        writeInterned("p", node.getPackageName(), false);
+        writeOptional("d", node.getContentDescription());
+        mWriter.write(",\"f\":");
+        mWriter.write(Integer.toString(HierarchyNode.flags(node, naf)));
+        mWriter.write(",\"b\":[");
+        mWriter.write(Integer.toString(bounds.left));
+        mWriter.write(',');
+        mWriter.write(Integer.toString(bounds.top));
+        mWriter.write(',');
+        mWriter.write(Integer.toString(bounds.right));
+        mWriter.write(',');
+        mWriter.write(Integer.toString(bounds.bottom));
+        mWriter.write(']');
+    }
+
+    @Override
+    void endNode() throws IOException {
+        mDepth--;
+        if (mHasChildren[mDepth])
+            mWriter.write(']');
+        mWriter.write('}');
+        if (mFragment && mDepth == 0)
+            mWriter.flush();
+    }
+
+    @Override
+    void flush() throws IOException {
+        mWriter.flush();
+    }
+
+    private void writeOptional(String key, CharSequence value) throws IOException {
+        String s = toString(value);
+        if (s.isEmpty())
+            return;
+        writeKey(key);
+        writeString(s);
+    }
+
+    private void writeInterned(String key, CharSequence value, boolean optional) throws IOException {
+        String s = toString(value);
+        if (optional && s.isEmpty())
+            return;
+        writeKey(key);
+        Integer ref = mStrings.get(s);
+        if (ref != null) {
+            mWriter.write(Integer.toString(ref));
+        } else {
+            mStrings.put(s, mStrings.size());
+            writeString(s);
+        }
+    }
+
+    private static String toString(CharSequence cs) {
+        return cs == null ? "" : cs.toString();
+    }
+
+    private void writeKey(String key) throws IOException {
+        mWriter.write(",\"");
+        mWriter.write(key);
+        mWriter.write("\":");
+    }
+
+    private void writeString(String s) throws IOException {
+        mWriter.write('"');
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char ch = s.charAt(i);
+            if (ch != '"' && ch != '\\' && ch >= 0x20)
+                continue;
+            mWriter.write(s, start, i - start);
+            switch (ch) {
+                case '"':
+                    mWriter.write("\\\"");
+                    break;
+                case '\\':
+                    mWriter.write("\\\\");
+                    break;
+                default:
+                    mWriter.write(String.format("\\u%04x", (int) ch));
+                    break;
+            }
+            start = i + 1;
+        }
+        mWriter.write(s, start, length - start);
+        mWriter.write('"');
+    }
+}
@@ -0,0 +1,98 @@
+package android.support.test.wqhyy;
+
+import android.os.Build;
+import android.util.Log;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches child nodes for hierarchy walks and counts the fetches of each kind of walk.
+ *
+ * Every child fetch may be a binder call to the app that owns the window. From API 33 the child
+ * is requested with a prefetch strategy, so the app returns the descendants along with it and
+ * later fetches in the same subtree are answered from the accessibility cache. Older platforms
+ * fetch one node per call, apart from the prefetching the framework does on its own.
+ */
+public final class NodeTraversal {
+    private static final String LOG_TAG = NodeTraversal.class.getSimpleName();
+
+    public static final NodeTraversal SEARCH = new NodeTraversal("search");
+    public static final NodeTraversal DUMP = new NodeTraversal("dump");
+    public static final NodeTraversal SNAPSHOT = new NodeTraversal("snapshot");
+
+    private static final NodeTraversal[] ALL = {SEARCH, DUMP, SNAPSHOT};
+
+    // AccessibilityNodeInfo#getChild(int, int) and FLAG_PREFETCH_DESCENDANTS_HYBRID, API 33
+    private static final Method sGetChildWithPrefetch;
+    private static final int sPrefetchStrategy;
+
+    static {
+        Method method = null;
+        int strategy = 0;
+        if (Build.VERSION.SDK_INT >= 33) {
+            try {
+                method = AccessibilityNodeInfo.class.getMethod("getChild", int.class, int.class);
+                strategy = AccessibilityNodeInfo.class.getField("FLAG_PREFETCH_DESCENDANTS_HYBRID").getInt(null);
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "Prefetching child nodes is not available", e);
+                method = null;
+            }
+        }
+        sGetChildWithPrefetch = method;
+        sPrefetchStrategy = strategy;
+    }
+
+    private final String mName;
+    private final AtomicLong mTraversals = new AtomicLong();
+    private final AtomicLong mFetches = new AtomicLong();
+
+    private NodeTraversal(String name) {
+        mName = name;
+    }
+
+    public static NodeTraversal[] values() {
+        return ALL.clone();
+    }
+
+    public static boolean isPrefetching() {
+        return sGetChildWithPrefetch != null;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /** Counts one walk of this kind; call once per search, dump or capture. */
+    public void begin() {
+        mTraversals.incrementAndGet();
+    }
+
+    public long getTraversals() {
+        return mTraversals.get();
+    }
+
+    public long getFetches() {
+        return mFetches.get();
+    }
+
+    /** Same as {@link AccessibilityNodeInfo#getChild(int)}, prefetching where supported. */
+    public AccessibilityNodeInfo getChild(AccessibilityNodeInfo parent, int index) {
+        mFetches.incrementAndGet();
+        if (sGetChildWithPrefetch != null) {
+            try {
+                return (AccessibilityNodeInfo) sGetChildWithPrefetch.invoke(parent, index, sPrefetchStrategy);
+            } catch (Exception e) {
+                Log.w(LOG_TAG, "Prefetching getChild failed, fetching a single node", e);
+            }
+        }
+        return parent.getChild(index);
+    }
+
+    /** Same as {@link AccessibilityNodeInfo#getParent()}, counted as a fetch. */
+    public AccessibilityNodeInfo getParent(AccessibilityNodeInfo node) {
+        mFetches.incrementAndGet();
+        return node.getParent();
+    }
+}
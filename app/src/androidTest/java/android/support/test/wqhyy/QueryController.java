@@ -22,6 +22,9 @@ import android.util.Log;
 import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * The QueryController main purpose is to translate a {@link android.support.test.wqhyy.UiSelector} selectors to
  * {@link AccessibilityNodeInfo}. This is all this controller does.
@@ -142,6 +145,7 @@ class QueryController {
                                                               boolean isCounting) {
         mUiAutomatorBridge.waitForIdle();
         initializeNewSearch();
+        NodeTraversal.SEARCH.begin();
 
         if (DEBUG)
             Log.d(LOG_TAG, "Searching: " + selector);
@@ -157,6 +161,104 @@ class QueryController {
         return translateCompoundSelector(uiSelector, rootNode, isCounting);
     }
 
+    /**
+     * Finds every instance of a regular selector in a single walk of the hierarchy. Element
+     * <code>i</code> of the result is the node that {@link #findAccessibilityNodeInfo(android.support.test.wqhyy.UiSelector)}
+     * returns when the leaf selector is given <code>instance(i)</code>, so the size of the
+     * result is the instance count.
+     * <p/>
+     * The instance search restarts its count in every scope opened by a CHILD or PARENT
+     * sub selector and returns from the first scope holding enough matches. This walk
+     * therefore records the leaf matches of each scope and merges them in that order.
+     * @param selector a regular_selector; pattern_selectors are counted by
+     *                 {@link #getPatternCount(android.support.test.wqhyy.UiSelector)}
+     * @return matched nodes in instance order, empty if none
+     */
+    public List<AccessibilityNodeInfo> findAllAccessibilityNodeInfo(android.support.test.wqhyy.UiSelector selector) {
+        if (selector.hasContainerSelector() || selector.hasPatternSelector()) {
+            throw new IllegalArgumentException("Pattern selectors cannot be searched for all instances");
+        }
+        mUiAutomatorBridge.waitForIdle();
+        NodeTraversal.SEARCH.begin();
+        List<AccessibilityNodeInfo> result = new ArrayList<AccessibilityNodeInfo>();
+
+        AccessibilityNodeInfo rootNode = getRootNode();
+        if (rootNode == null) {
+            Log.e(LOG_TAG, "Cannot proceed when root node is null. Aborted search");
+            return result;
+        }
+
+        android.support.test.wqhyy.UiSelector uiSelector = new android.support.test.wqhyy.UiSelector(selector);
+        List<List<AccessibilityNodeInfo>> scopes = new ArrayList<List<AccessibilityNodeInfo>>();
+        List<AccessibilityNodeInfo> scope = null;
+        if (uiSelector.isLeaf()) {
+            scope = new ArrayList<AccessibilityNodeInfo>();
+            scopes.add(scope);
+        }
+        findAllRegularRecursive(uiSelector, rootNode, 0, scopes, scope);
+
+        for (List<AccessibilityNodeInfo> matches : scopes) {
+            while (result.size() < matches.size()) {
+                result.add(matches.get(result.size()));
+            }
+        }
+        if (DEBUG)
+            Log.d(LOG_TAG, String.format("Found %d instances of: %s", result.size(), selector));
+        return result;
+    }
+
+    /**
+     * Same walk as {@link #findNodeRegularRecursive(android.support.test.wqhyy.UiSelector, AccessibilityNodeInfo, int)},
+     * except that a leaf match is recorded in the current scope and the walk goes on, as the
+     * instance search does while the requested instance has not been reached.
+     */
+    private void findAllRegularRecursive(android.support.test.wqhyy.UiSelector subSelector,
+                                         AccessibilityNodeInfo fromNode, int index,
+                                         List<List<AccessibilityNodeInfo>> scopes,
+                                         List<AccessibilityNodeInfo> scope) {
+
+        if (subSelector.isMatchFor(fromNode, index)) {
+            if (subSelector.isLeaf()) {
+                scope.add(fromNode);
+            } else {
+                if (subSelector.hasChildSelector()) {
+                    subSelector = subSelector.getChildSelector();
+                    if (subSelector == null) {
+                        Log.e(LOG_TAG, "Error: A child selector without content");
+                        return;
+                    }
+                } else if (subSelector.hasParentSelector()) {
+                    subSelector = subSelector.getParentSelector();
+                    if (subSelector == null) {
+                        Log.e(LOG_TAG, "Error: A parent selector without content");
+                        return;
+                    }
+                    fromNode = NodeTraversal.SEARCH.getParent(fromNode);
+                    if (fromNode == null)
+                        return;
+                }
+                if (subSelector.isLeaf()) {
+                    scope = new ArrayList<AccessibilityNodeInfo>();
+                    scopes.add(scope);
+                }
+            }
+        }
+
+        int childCount = fromNode.getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            AccessibilityNodeInfo childNode = NodeTraversal.SEARCH.getChild(fromNode, i);
+            if (childNode == null) {
+                Log.w(LOG_TAG, String.format(
+                        "AccessibilityNodeInfo returned a null child (%d of %d)", i, childCount));
+                continue;
+            }
+            if (!childNode.isVisibleToUser()) {
+                continue;
+            }
+            findAllRegularRecursive(subSelector, childNode, i, scopes, scope);
+        }
+    }
+
     /**
      * Gets the root node from accessibility and if it fails to get one it will
      * retry every 250ms for up to 1000ms.
@@ -314,7 +416,7 @@ class QueryController {
                 }
                 // the selector requested we start at this level from
                 // the parent node from the one we just matched
-                fromNode = fromNode.getParent();
+                fromNode = NodeTraversal.SEARCH.getParent(fromNode);
                 if(fromNode == null)
                     return null;
             }
@@ -323,7 +425,7 @@ class QueryController {
         int childCount = fromNode.getChildCount();
         boolean hasNullChild = false;
         for (int i = 0; i < childCount; i++) {
-            AccessibilityNodeInfo childNode = fromNode.getChild(i);
+            AccessibilityNodeInfo childNode = NodeTraversal.SEARCH.getChild(fromNode, i);
             if (childNode == null) {
                 Log.w(LOG_TAG, String.format(
                         "AccessibilityNodeInfo returned a null child (%d of %d)", i, childCount));
@@ -443,7 +545,7 @@ class QueryController {
                         Log.e(LOG_TAG, "Error: A parent selector without content");
                         return null;
                     }
-                    fromNode = fromNode.getParent();
+                    fromNode = NodeTraversal.SEARCH.getParent(fromNode);
                     if(fromNode == null)
                         return null;
                 }
@@ -453,7 +555,7 @@ class QueryController {
         int childCount = fromNode.getChildCount();
         boolean hasNullChild = false;
         for (int i = 0; i < childCount; i++) {
-            AccessibilityNodeInfo childNode = fromNode.getChild(i);
+            AccessibilityNodeInfo childNode = NodeTraversal.SEARCH.getChild(fromNode, i);
             if (childNode == null) {
                 Log.w(LOG_TAG, String.format(
                         "AccessibilityNodeInfo returned a null child (%d of %d)", i, childCount));
@@ -99,6 +99,10 @@ public abstract class UiAutomatorBridge {
         mUiAutomation.setServiceInfo(info);
     }
 
+    public boolean isCompressedLayoutHierarchy() {
+        return (mUiAutomation.getServiceInfo().flags & AccessibilityServiceInfo.FLAG_INCLUDE_NOT_IMPORTANT_VIEWS) == 0;
+    }
+
     public abstract int getRotation();
 
     public abstract boolean isScreenOn();
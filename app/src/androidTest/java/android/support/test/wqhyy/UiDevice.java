@@ -11,6 +11,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
@@ -49,6 +50,12 @@ public class UiDevice implements android.support.test.wqhyy.Searchable {
     // home page or there is nothing to go back to, Set low timeouts.
     private static final long KEY_PRESS_EVENT_TIMEOUT = 1 * 1000;
 
+    /** Window hierarchy dump format of uiautomator dump: indented XML. */
+    public static final String HIERARCHY_FORMAT_XML = "xml";
+
+    /** Compact window hierarchy dump format: JSON with short keys, packed flags and bounds arrays. */
+    public static final String HIERARCHY_FORMAT_JSON = "json";
+
     // store for registered UiWatchers
     private final HashMap<String, android.support.test.wqhyy.UiWatcher> mWatchers = new HashMap<String, android.support.test.wqhyy.UiWatcher>();
     private final List<String> mWatchersTriggers = new ArrayList<String>();
@@ -135,6 +142,18 @@ public class UiDevice implements android.support.test.wqhyy.Searchable {
         return new android.support.test.wqhyy.UiObject(this, selector);
     }
 
+    /**
+     * Returns the nodes of all instances that match the specified selector criteria, found
+     * in a single walk of the hierarchy. Element i is the node a UiObject for the same
+     * selector with instance i on its last sub selector would resolve to.
+     *
+     * @param selector a selector without container or pattern criteria
+     * @return list of nodes, empty if nothing matches
+     */
+    public List<AccessibilityNodeInfo> findAccessibilityNodeInfos(android.support.test.wqhyy.UiSelector selector) {
+        return getAutomatorBridge().getQueryController().findAllAccessibilityNodeInfo(selector);
+    }
+
     /** Returns whether there is a match for the given {@code selector} criteria. */
     public boolean hasObject(android.support.test.wqhyy.BySelector selector) {
         AccessibilityNodeInfo node = android.support.test.wqhyy.ByMatcher.findMatch(this, selector, getWindowRoots());
@@ -229,6 +248,14 @@ public class UiDevice implements android.support.test.wqhyy.Searchable {
         getAutomatorBridge().setCompressedLayoutHierarchy(compressed);
     }
 
+    /**
+     * @return true if the layout hierarchy is compressed, as set by
+     * {@link #setCompressedLayoutHeirarchy(boolean)}
+     */
+    public boolean isCompressedLayoutHeirarchy() {
+        return getAutomatorBridge().isCompressedLayoutHierarchy();
+    }
+
     /**
      * Retrieves a singleton instance of UiDevice
      *
@@ -539,6 +566,54 @@ public class UiDevice implements android.support.test.wqhyy.Searchable {
         return p.y;
     }
 
+    /**
+     * Finds the visible bounds of a partially visible UI element, the same way
+     * {@link android.support.test.wqhyy.UiObject#getVisibleBounds()} does for the node it resolves to.
+     *
+     * @param node
+     * @return a Rect containing visible bounds
+     */
+    public Rect getVisibleBounds(AccessibilityNodeInfo node) {
+        // targeted node's bounds
+        int w = getDisplayWidth();
+        int h = getDisplayHeight();
+        Rect nodeRect = android.support.test.wqhyy.AccessibilityNodeInfoHelper.getVisibleBoundsInScreen(node, w, h);
+
+        // is the targeted node within a scrollable container?
+        AccessibilityNodeInfo scrollableParentNode = getScrollableParent(node);
+        if(scrollableParentNode == null) {
+            // nothing to adjust for so return the node's Rect as is
+            return nodeRect;
+        }
+
+        // Scrollable parent's visible bounds
+        Rect parentRect = android.support.test.wqhyy.AccessibilityNodeInfoHelper
+                .getVisibleBoundsInScreen(scrollableParentNode, w, h);
+        // adjust for partial clipping of targeted by parent node if required
+        nodeRect.intersect(parentRect);
+        return nodeRect;
+    }
+
+    /**
+     * Walks up the layout hierarchy to find a scrollable parent. A scrollable parent
+     * indicates that this node might be in a container where it is partially
+     * visible due to scrolling. In this case, its clickable center might not be visible and
+     * the click coordinates should be adjusted.
+     *
+     * @param node
+     * @return The accessibility node info.
+     */
+    private AccessibilityNodeInfo getScrollableParent(AccessibilityNodeInfo node) {
+        AccessibilityNodeInfo parent = node;
+        while(parent != null) {
+            parent = parent.getParent();
+            if (parent != null && parent.isScrollable()) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
     /**
      * Perform a click at arbitrary coordinates specified by the user
      *
@@ -943,6 +1018,46 @@ public class UiDevice implements android.support.test.wqhyy.Searchable {
         android.support.test.wqhyy.AccessibilityNodeInfoDumper.dumpWindowHierarchy(this, out);
     }
 
+    /**
+     * Dump the current window hierarchy to an {@link java.io.OutputStream} in the given format.
+     *
+     * @param out The output stream that the window hierarchy information is written to.
+     * @param format {@link #HIERARCHY_FORMAT_XML} or {@link #HIERARCHY_FORMAT_JSON}
+     * @throws IllegalArgumentException if the format is unknown
+     * @throws IOException
+     */
+    public void dumpWindowHierarchy(OutputStream out, String format) throws IOException {
+        android.support.test.wqhyy.AccessibilityNodeInfoDumper.dumpWindowHierarchy(this, out, format);
+    }
+
+    /**
+     * Dump the parts of the current window hierarchy that pass a filter to an
+     * {@link java.io.OutputStream} in the given format.
+     *
+     * @param out The output stream that the window hierarchy information is written to.
+     * @param format {@link #HIERARCHY_FORMAT_XML} or {@link #HIERARCHY_FORMAT_JSON}
+     * @param filter The depth, packages, root, region and kinds of nodes to dump.
+     * @throws IllegalArgumentException if the format is unknown
+     * @throws IOException
+     */
+    public void dumpWindowHierarchy(OutputStream out, String format, android.support.test.wqhyy.HierarchyFilter filter)
+            throws IOException {
+        android.support.test.wqhyy.AccessibilityNodeInfoDumper.dumpWindowHierarchy(this, out, format, filter);
+    }
+
+    /**
+     * Capture the parts of the current window hierarchy that pass a filter, with the same
+     * attributes as a dump.
+     *
+     * @param filter The depth, packages, root, region and kinds of nodes to capture.
+     * @return the captured nodes, parents before their children
+     * @throws IOException
+     */
+    public List<android.support.test.wqhyy.HierarchyNode> captureWindowHierarchy(android.support.test.wqhyy.HierarchyFilter filter)
+            throws IOException {
+        return android.support.test.wqhyy.AccessibilityNodeInfoDumper.captureWindowHierarchy(this, filter);
+    }
+
     /**
      * Waits for a window content update event to occur.
      *
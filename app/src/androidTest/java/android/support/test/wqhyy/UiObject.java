@@ -172,6 +172,22 @@ public class UiObject {
         return node.getChildCount();
     }
 
+    /**
+     * Resolves the UI element once, so several of its properties can be read from the same
+     * node instead of searching for it again in every getter.
+     *
+     * @return AccessibilityNodeInfo of the matched element
+     * @throws UiObjectNotFoundException
+     */
+    public AccessibilityNodeInfo getAccessibilityNodeInfo() throws UiObjectNotFoundException {
+        android.support.test.wqhyy.Tracer.trace();
+        AccessibilityNodeInfo node = findAccessibilityNodeInfo(mConfig.getWaitForSelectorTimeout());
+        if(node == null) {
+            throw new UiObjectNotFoundException(mUiSelector.toString());
+        }
+        return node;
+    }
+
     /**
      * Finds a matching UI element in the accessibility hierarchy, by
      * using the selector for this UiObject.
@@ -185,6 +201,7 @@ public class UiObject {
         long startMills = SystemClock.uptimeMillis();
         long currentMills = 0;
         while (currentMills <= timeout) {
+            Cancellation.check();
             node = getQueryController().findAccessibilityNodeInfo(mUiSelector);
             if (node != null) {
                 break;
@@ -194,7 +211,7 @@ public class UiObject {
             }
             currentMills = SystemClock.uptimeMillis() - startMills;
             if(timeout > 0) {
-                SystemClock.sleep(WAIT_FOR_SELECTOR_POLL);
+                Cancellation.sleep(WAIT_FOR_SELECTOR_POLL);
             }
         }
         return node;
@@ -356,45 +373,7 @@ public class UiObject {
         if (node == null) {
             return null;
         }
-
-        // targeted node's bounds
-        int w = mDevice.getDisplayWidth();
-        int h = mDevice.getDisplayHeight();
-        Rect nodeRect = android.support.test.wqhyy.AccessibilityNodeInfoHelper.getVisibleBoundsInScreen(node, w, h);
-
-        // is the targeted node within a scrollable container?
-        AccessibilityNodeInfo scrollableParentNode = getScrollableParent(node);
-        if(scrollableParentNode == null) {
-            // nothing to adjust for so return the node's Rect as is
-            return nodeRect;
-        }
-
-        // Scrollable parent's visible bounds
-        Rect parentRect = android.support.test.wqhyy.AccessibilityNodeInfoHelper
-                .getVisibleBoundsInScreen(scrollableParentNode, w, h);
-        // adjust for partial clipping of targeted by parent node if required
-        nodeRect.intersect(parentRect);
-        return nodeRect;
-    }
-
-    /**
-     * Walks up the layout hierarchy to find a scrollable parent. A scrollable parent
-     * indicates that this node might be in a container where it is partially
-     * visible due to scrolling. In this case, its clickable center might not be visible and
-     * the click coordinates should be adjusted.
-     *
-     * @param node
-     * @return The accessibility node info.
-     */
-    private AccessibilityNodeInfo getScrollableParent(AccessibilityNodeInfo node) {
-        AccessibilityNodeInfo parent = node;
-        while(parent != null) {
-            parent = parent.getParent();
-            if (parent != null && parent.isScrollable()) {
-                return parent;
-            }
-        }
-        return null;
+        return mDevice.getVisibleBounds(node);
     }
 
     /**
@@ -958,7 +937,7 @@ public class UiObject {
                 return true;
             currentMills = SystemClock.uptimeMillis() - startMills;
             if(timeout > 0)
-                SystemClock.sleep(WAIT_FOR_SELECTOR_POLL);
+                Cancellation.sleep(WAIT_FOR_SELECTOR_POLL);
         }
         return false;
     }
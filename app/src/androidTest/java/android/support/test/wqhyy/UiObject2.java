@@ -489,6 +489,7 @@ public class UiObject2 implements Searchable {
         // Scroll by performing repeated swipes
         Rect bounds = getVisibleBoundsForGestures();
         for (; percent > 0.0f; percent -= 1.0f) {
+            Cancellation.check();
             float segment = percent > 1.0f ? 1.0f : percent;
             PointerGesture swipe =
                     mGestures.swipeRect(bounds, swipeDirection, segment, speed).pause(250);
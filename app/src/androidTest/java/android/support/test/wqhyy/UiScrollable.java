@@ -267,6 +267,7 @@ public class UiScrollable extends android.support.test.wqhyy.UiCollection {
                 return (true);
             }
             for (int x = 0; x < mMaxSearchSwipes; x++) {
+                Cancellation.check();
                 boolean scrolled = scrollForward();
                 if(exists(childSelector)) {
                     return true;
@@ -541,6 +542,7 @@ public class UiScrollable extends android.support.test.wqhyy.UiCollection {
         Log.d(LOG_TAG, "scrollToBeginning() on selector = " + getSelector());
         // protect against potential hanging and return after preset attempts
         for(int x = 0; x < maxSwipes; x++) {
+            Cancellation.check();
             if(!scrollBackward(steps)) {
                 break;
             }
@@ -592,6 +594,7 @@ public class UiScrollable extends android.support.test.wqhyy.UiCollection {
         android.support.test.wqhyy.Tracer.trace(maxSwipes, steps);
         // protect against potential hanging and return after preset attempts
         for(int x = 0; x < maxSwipes; x++) {
+            Cancellation.check();
             if(!scrollForward(steps)) {
                 break;
             }
@@ -19,6 +19,8 @@ package android.support.test.wqhyy;
 import android.util.SparseArray;
 import android.view.accessibility.AccessibilityNodeInfo;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -64,6 +66,16 @@ public class UiSelector {
 
     private SparseArray<Object> mSelectorAttributes = new SparseArray<Object>();
 
+    // Clients send the same regular expressions over and over, so compiled ones are shared.
+    private static final int PATTERN_CACHE_SIZE = 64;
+    private static final Map<String, Pattern> sPatternCache =
+            new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                    return size() > PATTERN_CACHE_SIZE;
+                }
+            };
+
     /**
      * @since API Level 16
      */
@@ -134,7 +146,7 @@ public class UiSelector {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
-        return buildSelector(SELECTOR_TEXT_REGEX, Pattern.compile(regex));
+        return buildRegexSelector(SELECTOR_TEXT_REGEX, SELECTOR_TEXT, regex);
     }
 
     /**
@@ -198,7 +210,7 @@ public class UiSelector {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
-        return buildSelector(SELECTOR_CLASS_REGEX, Pattern.compile(regex));
+        return buildRegexSelector(SELECTOR_CLASS_REGEX, SELECTOR_CLASS, regex);
     }
 
     /**
@@ -259,7 +271,7 @@ public class UiSelector {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
-        return buildSelector(SELECTOR_DESCRIPTION_REGEX, Pattern.compile(regex));
+        return buildRegexSelector(SELECTOR_DESCRIPTION_REGEX, SELECTOR_DESCRIPTION, regex);
     }
 
     /**
@@ -336,7 +348,7 @@ public class UiSelector {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
-        return buildSelector(SELECTOR_RESOURCE_ID_REGEX, Pattern.compile(regex));
+        return buildRegexSelector(SELECTOR_RESOURCE_ID_REGEX, SELECTOR_RESOURCE_ID, regex);
     }
 
     /**
@@ -626,7 +638,44 @@ public class UiSelector {
         if (regex == null) {
             throw new IllegalArgumentException("regex cannot be null");
         }
-        return buildSelector(SELECTOR_PACKAGE_NAME_REGEX, Pattern.compile(regex));
+        return buildRegexSelector(SELECTOR_PACKAGE_NAME_REGEX, SELECTOR_PACKAGE_NAME, regex);
+    }
+
+    /**
+     * Like {@link #buildSelector(int, Object)} for a regular expression criterion. A regex
+     * without metacharacters can only match itself, so it becomes the plain equality
+     * criterion unless that one is already set; others are compiled once and cached.
+     */
+    private UiSelector buildRegexSelector(int regexId, int literalId, String regex) {
+        if (isLiteral(regex) && mSelectorAttributes.indexOfKey(literalId) < 0)
+            return buildSelector(literalId, regex);
+        return buildSelector(regexId, compilePattern(regex));
+    }
+
+    /**
+     * @return true if the regex has no metacharacters, so it only matches itself
+     */
+    public static boolean isLiteral(String regex) {
+        for (int i = 0; i < regex.length(); i++) {
+            if ("\\[](){}.*+?^$|".indexOf(regex.charAt(i)) >= 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles a regular expression through the cache shared by all selectors. A regex without
+     * metacharacters is compiled quoted, which ByMatcher recognises and compares as a plain string.
+     */
+    public static Pattern compilePattern(String regex) {
+        synchronized (sPatternCache) {
+            Pattern pattern = sPatternCache.get(regex);
+            if (pattern == null) {
+                pattern = isLiteral(regex) ? Pattern.compile(Pattern.quote(regex)) : Pattern.compile(regex);
+                sPatternCache.put(regex, pattern);
+            }
+            return pattern;
+        }
     }
 
     /**
@@ -704,152 +753,181 @@ public class UiSelector {
 
     boolean isMatchFor(AccessibilityNodeInfo node, int index) {
         int size = mSelectorAttributes.size();
+        // equality and state criteria first, so substring and regex checks only run on candidates
         for(int x = 0; x < size; x++) {
-            CharSequence s = null;
             int criterion = mSelectorAttributes.keyAt(x);
-            switch(criterion) {
-            case UiSelector.SELECTOR_INDEX:
-                if (index != this.getInt(criterion))
-                    return false;
-                break;
-            case UiSelector.SELECTOR_CHECKED:
-                if (node.isChecked() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CLASS:
-                s = node.getClassName();
-                if (s == null || !s.toString().contentEquals(getString(criterion))) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CLASS_REGEX:
-                s = node.getClassName();
-                if (s == null || !getPattern(criterion).matcher(s).matches()) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CLICKABLE:
-                if (node.isClickable() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CHECKABLE:
-                if (node.isCheckable() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_LONG_CLICKABLE:
-                if (node.isLongClickable() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CONTAINS_DESCRIPTION:
-                s = node.getContentDescription();
-                if (s == null || !s.toString().toLowerCase()
-                        .contains(getString(criterion).toLowerCase())) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_START_DESCRIPTION:
-                s = node.getContentDescription();
-                if (s == null || !s.toString().toLowerCase()
-                        .startsWith(getString(criterion).toLowerCase())) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_DESCRIPTION:
-                s = node.getContentDescription();
-                if (s == null || !s.toString().contentEquals(getString(criterion))) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_DESCRIPTION_REGEX:
-                s = node.getContentDescription();
-                if (s == null || !getPattern(criterion).matcher(s).matches()) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_CONTAINS_TEXT:
-                s = node.getText();
-                if (s == null || !s.toString().toLowerCase()
-                        .contains(getString(criterion).toLowerCase())) {
-                    return false;
-                }
-                break;
+            if (!isCostly(criterion) && !isMatchFor(criterion, node, index))
+                return false;
+        }
+        for(int x = 0; x < size; x++) {
+            int criterion = mSelectorAttributes.keyAt(x);
+            if (isCostly(criterion) && !isMatchFor(criterion, node, index))
+                return false;
+        }
+        return matchOrUpdateInstance();
+    }
+
+    private static boolean isCostly(int criterion) {
+        switch (criterion) {
             case UiSelector.SELECTOR_START_TEXT:
-                s = node.getText();
-                if (s == null || !s.toString().toLowerCase()
-                        .startsWith(getString(criterion).toLowerCase())) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_TEXT:
-                s = node.getText();
-                if (s == null || !s.toString().contentEquals(getString(criterion))) {
-                    return false;
-                }
-                break;
+            case UiSelector.SELECTOR_CONTAINS_TEXT:
+            case UiSelector.SELECTOR_START_DESCRIPTION:
+            case UiSelector.SELECTOR_CONTAINS_DESCRIPTION:
             case UiSelector.SELECTOR_TEXT_REGEX:
-                s = node.getText();
-                if (s == null || !getPattern(criterion).matcher(s).matches()) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_ENABLED:
-                if (node.isEnabled() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_FOCUSABLE:
-                if (node.isFocusable() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_FOCUSED:
-                if (node.isFocused() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_ID:
-                break; //TODO: do we need this for AccessibilityNodeInfo.id?
-            case UiSelector.SELECTOR_PACKAGE_NAME:
-                s = node.getPackageName();
-                if (s == null || !s.toString().contentEquals(getString(criterion))) {
-                    return false;
-                }
-                break;
+            case UiSelector.SELECTOR_CLASS_REGEX:
+            case UiSelector.SELECTOR_DESCRIPTION_REGEX:
             case UiSelector.SELECTOR_PACKAGE_NAME_REGEX:
-                s = node.getPackageName();
-                if (s == null || !getPattern(criterion).matcher(s).matches()) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_SCROLLABLE:
-                if (node.isScrollable() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_SELECTED:
-                if (node.isSelected() != getBoolean(criterion)) {
-                    return false;
-                }
-                break;
-            case UiSelector.SELECTOR_RESOURCE_ID:
-                s = node.getViewIdResourceName();
-                if (s == null || !s.toString().contentEquals(getString(criterion))) {
-                    return false;
-                }
-                break;
             case UiSelector.SELECTOR_RESOURCE_ID_REGEX:
-                s = node.getViewIdResourceName();
-                if (s == null || !getPattern(criterion).matcher(s).matches()) {
-                    return false;
-                }
-                break;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isMatchFor(int criterion, AccessibilityNodeInfo node, int index) {
+        CharSequence s = null;
+        switch(criterion) {
+        case UiSelector.SELECTOR_INDEX:
+            if (index != this.getInt(criterion))
+                return false;
+            break;
+        case UiSelector.SELECTOR_CHECKED:
+            if (node.isChecked() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_CLASS:
+            s = node.getClassName();
+            if (s == null || !s.toString().contentEquals(getString(criterion))) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_CLASS_REGEX:
+            s = node.getClassName();
+            if (s == null || !getPattern(criterion).matcher(s).matches()) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_CLICKABLE:
+            if (node.isClickable() != getBoolean(criterion)) {
+                return false;
             }
+            break;
+        case UiSelector.SELECTOR_CHECKABLE:
+            if (node.isCheckable() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_LONG_CLICKABLE:
+            if (node.isLongClickable() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_CONTAINS_DESCRIPTION:
+            s = node.getContentDescription();
+            if (s == null || !s.toString().toLowerCase()
+                    .contains(getString(criterion).toLowerCase())) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_START_DESCRIPTION:
+            s = node.getContentDescription();
+            if (s == null || !s.toString().toLowerCase()
+                    .startsWith(getString(criterion).toLowerCase())) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_DESCRIPTION:
+            s = node.getContentDescription();
+            if (s == null || !s.toString().contentEquals(getString(criterion))) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_DESCRIPTION_REGEX:
+            s = node.getContentDescription();
+            if (s == null || !getPattern(criterion).matcher(s).matches()) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_CONTAINS_TEXT:
+            s = node.getText();
+            if (s == null || !s.toString().toLowerCase()
+                    .contains(getString(criterion).toLowerCase())) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_START_TEXT:
+            s = node.getText();
+            if (s == null || !s.toString().toLowerCase()
+                    .startsWith(getString(criterion).toLowerCase())) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_TEXT:
+            s = node.getText();
+            if (s == null || !s.toString().contentEquals(getString(criterion))) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_TEXT_REGEX:
+            s = node.getText();
+            if (s == null || !getPattern(criterion).matcher(s).matches()) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_ENABLED:
+            if (node.isEnabled() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_FOCUSABLE:
+            if (node.isFocusable() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_FOCUSED:
+            if (node.isFocused() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_ID:
+            break; //TODO: do we need this for AccessibilityNodeInfo.id?
+        case UiSelector.SELECTOR_PACKAGE_NAME:
+            s = node.getPackageName();
+            if (s == null || !s.toString().contentEquals(getString(criterion))) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_PACKAGE_NAME_REGEX:
+            s = node.getPackageName();
+            if (s == null || !getPattern(criterion).matcher(s).matches()) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_SCROLLABLE:
+            if (node.isScrollable() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_SELECTED:
+            if (node.isSelected() != getBoolean(criterion)) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_RESOURCE_ID:
+            s = node.getViewIdResourceName();
+            if (s == null || !s.toString().contentEquals(getString(criterion))) {
+                return false;
+            }
+            break;
+        case UiSelector.SELECTOR_RESOURCE_ID_REGEX:
+            s = node.getViewIdResourceName();
+            if (s == null || !getPattern(criterion).matcher(s).matches()) {
+                return false;
+            }
+            break;
         }
-        return matchOrUpdateInstance();
+        return true;
     }
 
     private boolean matchOrUpdateInstance() {
@@ -919,6 +997,26 @@ public class UiSelector {
         return true;
     }
 
+    /**
+     * Whether a node can be checked against this selector on its own with
+     * {@link #matches(AccessibilityNodeInfo)}: the selector has no instance, index, child,
+     * parent, container or pattern part, all of which depend on the rest of the tree.
+     * @return true if matches can decide for a single node
+     */
+    public boolean isSingleNodeSelector() {
+        return isLeaf() && !hasContainerSelector() && !hasPatternSelector()
+                && mSelectorAttributes.indexOfKey(UiSelector.SELECTOR_INSTANCE) < 0
+                && mSelectorAttributes.indexOfKey(UiSelector.SELECTOR_INDEX) < 0;
+    }
+
+    /**
+     * Checks a node against a selector for which {@link #isSingleNodeSelector()} holds.
+     * @return true if the node still matches
+     */
+    public boolean matches(AccessibilityNodeInfo node) {
+        return isMatchFor(node, 0);
+    }
+
     /**
      * Returns the deepest selector in the chain of possible sub selectors.
      * A chain of selector is created when either of {@link UiSelector#childSelector(UiSelector)}
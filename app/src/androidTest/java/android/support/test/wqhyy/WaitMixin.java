@@ -45,7 +45,7 @@ class WaitMixin<T> {
                 break;
             }
 
-            SystemClock.sleep(interval);
+            Cancellation.sleep(interval);
             result = condition.apply(mObject);
         }
         return result;
@@ -0,0 +1,134 @@
+package android.support.test.wqhyy;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks several window roots at once. The app, the keyboard, system UI and popups live in
+ * different processes, so their binder calls do not wait on each other.
+ *
+ * Results always come back in root order, whichever walk finishes first. A single root is
+ * walked on the calling thread.
+ */
+final class WindowRoots {
+    private static final int MAX_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "WindowRootWalker-" + mCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /** A walk of one window root. */
+    interface Walk<T> {
+        T walk(AccessibilityNodeInfo root) throws Exception;
+    }
+
+    private WindowRoots() {
+    }
+
+    /**
+     * @return the result of each root, in root order
+     */
+    static <T> List<T> walkAll(AccessibilityNodeInfo[] roots, Walk<T> walk) throws Exception {
+        List<T> results = new ArrayList<T>(roots.length);
+        if (roots.length == 1) {
+            results.add(walk.walk(roots[0]));
+            return results;
+        }
+        List<Future<T>> futures = submit(roots, walk);
+        try {
+            for (Future<T> future : futures)
+                results.add(await(future));
+        } finally {
+            cancel(futures, 0);
+        }
+        return results;
+    }
+
+    /**
+     * Walks every root and returns the non-null result of the earliest root that has one. Once
+     * that root is known the walks of the later roots are cancelled.
+     *
+     * @return the first result in root order, or null if no root has one
+     */
+    static <T> T walkFirst(AccessibilityNodeInfo[] roots, Walk<T> walk) throws Exception {
+        if (roots.length == 1)
+            return walk.walk(roots[0]);
+        List<Future<T>> futures = submit(roots, walk);
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                T result = await(futures.get(i));
+                if (result != null) {
+                    cancel(futures, i + 1);
+                    return result;
+                }
+            }
+            return null;
+        } finally {
+            cancel(futures, 0);
+        }
+    }
+
+    private static <T> List<Future<T>> submit(AccessibilityNodeInfo[] roots, Walk<T> walk) {
+        return submit(roots, 0, walk);
+    }
+
+    /**
+     * Starts walking the roots from the given position on; the caller collects the results with
+     * {@link #await(Future)} and must {@link #cancel(List, int)} the walks it abandons.
+     */
+    static <T> List<Future<T>> submit(AccessibilityNodeInfo[] roots, int from, final Walk<T> walk) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(Math.max(roots.length - from, 0));
+        for (int i = from; i < roots.length; i++) {
+            final AccessibilityNodeInfo root = roots[i];
+            futures.add(sExecutor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return walk.walk(root);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new CancellationException("Operation cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw (Error) cause;
+        }
+    }
+
+    static <T> void cancel(List<Future<T>> futures, int from) {
+        for (int i = from; i < futures.size(); i++)
+            futures.get(i).cancel(true);
+    }
+}
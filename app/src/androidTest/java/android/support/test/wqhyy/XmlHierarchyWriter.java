@@ -0,0 +1,86 @@
+package android.support.test.wqhyy;
+
+import android.graphics.Rect;
+import android.util.Xml;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The indented XML format of uiautomator dump, with every attribute spelled out.
+ */
+class XmlHierarchyWriter extends HierarchyWriter {
+    private final OutputStream mOut;
+    private final XmlSerializer mSerializer;
+
+    XmlHierarchyWriter(OutputStream out) throws IOException {
+        mOut = out;
+        mSerializer = Xml.newSerializer();
+        mSerializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        mSerializer.setOutput(out, "UTF-8");
+    }
+
+    @Override
+    void startHierarchy(int rotation) throws IOException {
+        mSerializer.startDocument("UTF-8", true);
+        mSerializer.startTag("", "hierarchy"); // TODO(allenhair): Should we use a namespace?
+        mSerializer.attribute("", "rotation", Integer.toString(rotation));
+    }
+
+    @Override
+    void endHierarchy() throws IOException {
+        mSerializer.endTag("", "hierarchy");
+        mSerializer.endDocument();
+    }
+
+    @Override
+    HierarchyWriter newFragment() throws IOException {
+        return new XmlHierarchyWriter(new ByteArrayOutputStream());
+    }
+
+    @Override
+    void writeFragment(HierarchyWriter fragment) throws IOException {
+        mSerializer.flush();
+        ((ByteArrayOutputStream) ((XmlHierarchyWriter) fragment).mOut).writeTo(mOut);
+    }
+
+    @Override
+    void startNode(AccessibilityNodeInfo node, int index, Rect bounds, boolean naf) throws IOException {
+        mSerializer.startTag("", "node");
+        if (bounds == null)
+            return;
+        if (naf)
+            mSerializer.attribute("", "NAF", Boolean.toString(true));
+        mSerializer.attribute("", "index", Integer.toString(index));
+        mSerializer.attribute("", "text", AccessibilityNodeInfoDumper.safeCharSeqToString(node.getText()));
+        mSerializer.attribute("", "resource-id", AccessibilityNodeInfoDumper.safeCharSeqToString(node.getViewIdResourceName()));
+        mSerializer.attribute("", "class", AccessibilityNodeInfoDumper.safeCharSeqToString(node.getClassName()));
+        mSerializer.attribute("", "package", AccessibilityNodeInfoDumper.safeCharSeqToString(node.getPackageName()));
+        mSerializer.attribute("", "content-desc", AccessibilityNodeInfoDumper.safeCharSeqToString(node.getContentDescription()));
+        mSerializer.attribute("", "checkable", Boolean.toString(node.isCheckable()));
+        mSerializer.attribute("", "checked", Boolean.toString(node.isChecked()));
+        mSerializer.attribute("", "clickable", Boolean.toString(node.isClickable()));
+        mSerializer.attribute("", "enabled", Boolean.toString(node.isEnabled()));
+        mSerializer.attribute("", "focusable", Boolean.toString(node.isFocusable()));
+        mSerializer.attribute("", "focused", Boolean.toString(node.isFocused()));
+        mSerializer.attribute("", "scrollable", Boolean.toString(node.isScrollable()));
+        mSerializer.attribute("", "long-clickable", Boolean.toString(node.isLongClickable()));
+        mSerializer.attribute("", "password", Boolean.toString(node.isPassword()));
+        mSerializer.attribute("", "selected", Boolean.toString(node.isSelected()));
+        mSerializer.attribute("", "bounds", bounds.toShortString());
+    }
+
+    @Override
+    void endNode() throws IOException {
+        mSerializer.endTag("", "node");
+    }
+
+    @Override
+    void flush() throws IOException {
+        mSerializer.flush();
+    }
+}
@@ -8,6 +8,9 @@ import android.support.test.wqhyy.UiDevice;
 import android.view.accessibility.AccessibilityEvent;
 
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Used to skip apk auto install && permission popups
@@ -24,6 +27,33 @@ public class AccessibilityEventListener implements UiAutomation.OnAccessibilityE
     private HashSet<String> watchers;
     private static AccessibilityEventListener instance;
     private UiDevice device;
+    private static final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    private static final AtomicLong contentGeneration = new AtomicLong();
+
+    /**
+     * Receives every accessibility event on the UiAutomation thread. The event is recycled
+     * afterwards, so copy what is needed and return quickly.
+     */
+    public interface Subscriber {
+        void onAccessibilityEvent(AccessibilityEvent event);
+    }
+
+    public static void addSubscriber(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public static void removeSubscriber(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * A counter bumped whenever a window appears, disappears or changes state, or its content
+     * changes or scrolls; nodes resolved under an older value may no longer be the ones a
+     * selector finds.
+     */
+    public static long getContentGeneration() {
+        return contentGeneration.get();
+    }
 
     public AccessibilityEventListener(UiDevice device, HashSet<String> watchers) {
         this.device = device;
@@ -43,6 +73,13 @@ public class AccessibilityEventListener implements UiAutomation.OnAccessibilityE
         if (event.getPackageName() == null) {
             return;
         }
+        if ((event.getEventType() & (AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOWS_CHANGED
+                | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED | AccessibilityEvent.TYPE_VIEW_SCROLLED)) != 0) {
+            contentGeneration.incrementAndGet();
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onAccessibilityEvent(event);
+        }
         if ((event.getEventType() & (AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED)) != 0) {
             if (triggerWatchers) {
                 new Thread(new Runnable() {
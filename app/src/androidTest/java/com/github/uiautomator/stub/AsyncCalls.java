@@ -0,0 +1,185 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs JSON-RPC calls submitted in async mode on a dedicated thread, so slow waits and gestures
+ * do not hold HTTP workers, and keeps their responses until the client fetches them.
+ *
+ * Async calls run one at a time in submission order, like a script would issue them. Unfetched
+ * results are dropped {@link #RESULT_TTL} ms after the call finished.
+ */
+public class AsyncCalls {
+    public static final long RESULT_TTL = 5 * 60 * 1000;
+    private static final int QUEUE_SIZE = 64;
+
+    private final Map<String, Call> calls = new ConcurrentHashMap<String, Call>();
+    private final AtomicLong nextHandle = new AtomicLong(1);
+    private final ThreadPoolExecutor executor;
+    private final WebSocketHub hub;
+
+    public static class Result {
+        private final String mimeType;
+        private final byte[] body;
+
+        Result(String mimeType, byte[] body) {
+            this.mimeType = mimeType;
+            this.body = body;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    private class Call extends FutureTask<Result> {
+        final String handle;
+        final JsonRpcFormat format;
+        volatile long finishedAt = 0;
+
+        Call(String handle, JsonRpcFormat format, Callable<Result> callable) {
+            super(callable);
+            this.handle = handle;
+            this.format = format;
+        }
+
+        @Override
+        protected void done() {
+            finishedAt = System.currentTimeMillis();
+            if (isCancelled())
+                return;
+            try {
+                Result result = get();
+                if (result.getBody().length > 0)
+                    hub.publishAsyncResult(handle, format.getMapper().readTree(result.getBody()));
+            } catch (InterruptedException | ExecutionException | IOException e) {
+                Log.e("Async call " + handle + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public AsyncCalls(WebSocketHub hub) {
+        this.hub = hub;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AutomatorAsyncCall");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a request (single or batch) read in requestFormat; the response is produced in
+     * responseFormat.
+     *
+     * @return the handle to fetch the response with
+     * @throws RejectedExecutionException if too many async calls are pending
+     */
+    public String submit(final byte[] request, final JsonRpcFormat requestFormat, final JsonRpcFormat responseFormat,
+                         final boolean stopOnError) {
+        purgeExpired();
+        String handle = String.valueOf(nextHandle.getAndIncrement());
+        Call call = new Call(handle, responseFormat, new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                responseFormat.handle(new ByteArrayInputStream(request), requestFormat, stopOnError, os);
+                return new Result(responseFormat.getMimeType(), os.toByteArray());
+            }
+        });
+        calls.put(handle, call);
+        try {
+            executor.execute(call);
+        } catch (RejectedExecutionException e) {
+            calls.remove(handle);
+            throw e;
+        }
+        return handle;
+    }
+
+    public boolean exists(String handle) {
+        return calls.containsKey(handle);
+    }
+
+    /**
+     * Waits up to timeout ms for the call and removes it once it has finished.
+     *
+     * @return the response, or null if the call is still running or the handle is unknown
+     */
+    public Result poll(String handle, long timeout) throws ExecutionException, InterruptedException {
+        Call call = calls.get(handle);
+        if (call == null)
+            return null;
+        try {
+            Result result = call.get(timeout, TimeUnit.MILLISECONDS);
+            calls.remove(handle);
+            return result;
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            calls.remove(handle);
+            throw e;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        calls.clear();
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Call> it = calls.values().iterator();
+        while (it.hasNext()) {
+            Call call = it.next();
+            if (call.finishedAt > 0 && now - call.finishedAt > RESULT_TTL)
+                it.remove();
+        }
+    }
+}
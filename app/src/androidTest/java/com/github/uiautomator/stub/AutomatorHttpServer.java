@@ -26,29 +26,323 @@ package com.github.uiautomator.stub;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.wqhyy.UiDevice;
 
-import com.googlecode.jsonrpc4j.JsonRpcServer;
-
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
-import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoWSD;
 
-public class AutomatorHttpServer extends NanoHTTPD {
+public class AutomatorHttpServer extends NanoWSD {
+    // How long an idle keep-alive connection is kept open, in milliseconds.
+    public static final int KEEP_ALIVE_TIMEOUT = 15000;
+    // Every open connection holds a worker, idle keep-alive ones included, so the pool is sized
+    // for connections; how many calls execute at once is bounded separately.
+    private static final int MAX_CONNECTIONS = 128;
+    // Web sockets read their frames on their worker for as long as they are open; they get
+    // workers of their own on top of MAX_CONNECTIONS and upgrades beyond this are refused.
+    private static final int MAX_WEB_SOCKETS = 32;
+    private static final int CONNECTION_QUEUE_SIZE = 64;
+    private static final int MAX_IN_FLIGHT_CALLS = 16;
+    // Send "X-JsonRpc-Batch: stop-on-error" to end a batch at its first failing call.
+    public static final String BATCH_MODE_HEADER = "x-jsonrpc-batch";
+    public static final String BATCH_MODE_STOP_ON_ERROR = "stop-on-error";
+    // POST <route>/async queues a call and returns its handle; GET <route>/async/<handle>?wait=<ms>
+    // returns the response once the call has finished.
+    public static final String ASYNC_PATH = "/async";
+    private static final long MAX_ASYNC_WAIT = 30000;
 
     public AutomatorHttpServer(int port) {
         super(port);
+        setAsyncRunner(new WorkerPoolAsyncRunner(MAX_CONNECTIONS + MAX_WEB_SOCKETS, CONNECTION_QUEUE_SIZE));
+        webSocketHub = new WebSocketHub(KEEP_ALIVE_TIMEOUT / 3);
+        asyncCalls = new AsyncCalls(webSocketHub);
+    }
+
+    // uri -> mime type -> format; the first format routed for a uri is its default.
+    private Map<String, Map<String, JsonRpcFormat>> router = new HashMap<String, Map<String, JsonRpcFormat>>();
+
+    public void route(String uri, JsonRpcFormat format) {
+        if (!router.containsKey(uri))
+            router.put(uri, new LinkedHashMap<String, JsonRpcFormat>());
+        router.get(uri).put(format.getMimeType(), format);
+        format.setInFlightCalls(inFlightCalls);
+    }
+
+    private WebSocketHub webSocketHub;
+    private AsyncCalls asyncCalls;
+    private final RpcMetrics metrics = new RpcMetrics();
+    private final InFlightCalls inFlightCalls = new InFlightCalls(MAX_IN_FLIGHT_CALLS);
+
+    /**
+     * Metrics served at /metrics; install them as the invocation listener of the routed servers.
+     */
+    public RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Pipelined requests are read from the connection buffer as soon as the previous response
+     * is written; disabling Nagle keeps small responses from waiting for the client's ACK.
+     */
+    @Override
+    protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream) {
+        try {
+            finalAccept.setTcpNoDelay(true);
+        } catch (SocketException e) {
+            Log.d("Could not set TCP_NODELAY: " + e.getMessage());
+        }
+        return super.createClientHandler(finalAccept, inputStream);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        asyncCalls.shutdown();
+        webSocketHub.shutdown();
+    }
+
+    /**
+     * A web socket upgrade on a JSON-RPC route, e.g. ws://localhost:9008/jsonrpc/0, opens a
+     * {@link JsonRpcWebSocket}; upgrades on other paths are served as plain HTTP.
+     */
+    @Override
+    protected boolean isWebsocketRequested(IHTTPSession session) {
+        return super.isWebsocketRequested(session) && router.containsKey(session.getUri());
+    }
+
+    /**
+     * Refuses web socket upgrades with 503 once MAX_WEB_SOCKETS are open, so open sockets cannot
+     * take the workers of plain HTTP connections.
+     */
+    @Override
+    public Response serve(IHTTPSession session) {
+        if (!isWebsocketRequested(session))
+            return super.serve(session);
+        // The upgrade registers the socket in openWebSocket, before another upgrade can pass the check
+        synchronized (webSocketHub) {
+            if (webSocketHub.size() >= MAX_WEB_SOCKETS)
+                return newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, MIME_PLAINTEXT, "Too many web sockets!");
+            return super.serve(session);
+        }
+    }
+
+    @Override
+    protected WebSocket openWebSocket(IHTTPSession handshake) {
+        JsonRpcWebSocket socket = new JsonRpcWebSocket(handshake, router.get(handshake.getUri()), webSocketHub);
+        webSocketHub.register(socket);
+        return socket;
+    }
+
+    /**
+     * Only {@link StreamingResponse}s are compressed, by themselves once they know the body is
+     * large enough; the other responses are short texts or already compressed PNG screenshots.
+     */
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return false;
+    }
+
+    @Override
+    protected Response serveHttp(IHTTPSession session) {
+        Response response = handleHttp(session);
+        if (response instanceof StreamingResponse)
+            ((StreamingResponse) response).setAcceptEncoding(session.getHeaders().get("accept-encoding"));
+        return response;
     }
 
-    private Map<String, JsonRpcServer> router = new HashMap<String, JsonRpcServer>();
+    private Response handleHttp(IHTTPSession session) {
+        // Raw JSON-RPC posts are read from the connection and answered while the body is
+        // being written, instead of going through the String based serve() below.
+        String uri = session.getUri();
+        boolean async = uri.endsWith(ASYNC_PATH);
+        String route = async ? uri.substring(0, uri.length() - ASYNC_PATH.length()) : uri;
+        if (Method.POST.equals(session.getMethod()) && router.containsKey(route)) {
+            Map<String, String> headers = session.getHeaders();
+            String contentType = headers.get("content-type");
+            String contentLength = headers.get("content-length");
+            boolean form = contentType != null && (contentType.startsWith("application/x-www-form-urlencoded")
+                    || contentType.startsWith("multipart/form-data"));
+            if (!form && contentLength != null) {
+                try {
+                    long length = Long.parseLong(contentLength.trim());
+                    Log.d(String.format("URI: %s, Method: %s, streaming %d bytes", uri, session.getMethod(), length));
+                    Map<String, JsonRpcFormat> formats = router.get(route);
+                    JsonRpcFormat requestFormat = negotiate(formats, contentType);
+                    JsonRpcFormat responseFormat = negotiate(formats, headers.get("accept"), requestFormat);
+                    ContentLengthInputStream body = new ContentLengthInputStream(session.getInputStream(), length);
+                    if (async)
+                        return submitAsyncCall(requestFormat, responseFormat, body, headers);
+                    return newStreamingJsonRpcResponse(requestFormat, responseFormat, body, headers);
+                } catch (NumberFormatException e) {
+                    // The body cannot be skipped without a length, so drop the connection.
+                    Response response = newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid Content-Length!");
+                    response.closeConnection(true);
+                    return response;
+                }
+            }
+        }
+        return super.serveHttp(session);
+    }
+
+    private static JsonRpcFormat negotiate(Map<String, JsonRpcFormat> formats, String contentType) {
+        return negotiate(formats, contentType, formats.values().iterator().next());
+    }
+
+    /**
+     * Picks the first listed mime type of a Content-Type or Accept header that has a format on
+     * the route. Quality values are not weighed.
+     */
+    private static JsonRpcFormat negotiate(Map<String, JsonRpcFormat> formats, String header, JsonRpcFormat defaultFormat) {
+        if (header == null)
+            return defaultFormat;
+        for (String mimeType : header.split(",")) {
+            int params = mimeType.indexOf(';');
+            if (params >= 0)
+                mimeType = mimeType.substring(0, params);
+            JsonRpcFormat format = formats.get(mimeType.trim().toLowerCase(Locale.US));
+            if (format != null)
+                return format;
+        }
+        return defaultFormat;
+    }
+
+    private Response submitAsyncCall(JsonRpcFormat requestFormat, JsonRpcFormat responseFormat,
+                                     ContentLengthInputStream body, Map<String, String> headers) {
+        boolean stopOnError = BATCH_MODE_STOP_ON_ERROR.equalsIgnoreCase(headers.get(BATCH_MODE_HEADER));
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = body.read(buffer)) > 0)
+                request.write(buffer, 0, n);
+            String handle = asyncCalls.submit(request.toByteArray(), requestFormat, responseFormat, stopOnError);
+            return newAsyncStatusResponse(Response.Status.ACCEPTED, handle, "queued");
+        } catch (RejectedExecutionException e) {
+            return newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, MIME_PLAINTEXT, "Too many async calls!");
+        } catch (IOException e) {
+            Response response = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Server Error!!!");
+            response.closeConnection(true);
+            return response;
+        }
+    }
+
+    private Response pollAsyncCall(String handle, String wait) {
+        long timeout = 0;
+        if (wait != null) {
+            try {
+                timeout = Math.min(Long.parseLong(wait), MAX_ASYNC_WAIT);
+            } catch (NumberFormatException e) {
+            }
+        }
+        if (!asyncCalls.exists(handle))
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Not Found!!!");
+        try {
+            AsyncCalls.Result result = asyncCalls.poll(handle, timeout);
+            if (result == null)
+                return newAsyncStatusResponse(Response.Status.ACCEPTED, handle, "running");
+            if (result.getBody().length == 0)
+                return newFixedLengthResponse(Response.Status.NO_CONTENT, result.getMimeType(), "");
+            return StreamingResponse.fromBytes(Response.Status.OK, result.getMimeType(), result.getBody());
+        } catch (ExecutionException e) {
+            Log.e("Async call " + handle + " failed: " + e.getCause());
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Server Error!!!");
+        } catch (InterruptedException e) {
+            return newAsyncStatusResponse(Response.Status.ACCEPTED, handle, "running");
+        }
+    }
+
+    private Response newAsyncStatusResponse(Response.Status status, String handle, String state) {
+        return newFixedLengthResponse(status, "application/json",
+                String.format("{\"handle\": \"%s\", \"status\": \"%s\"}", handle, state));
+    }
+
+    private Response newStreamingJsonRpcResponse(final JsonRpcFormat requestFormat, final JsonRpcFormat responseFormat,
+                                                 final ContentLengthInputStream body, Map<String, String> headers) {
+        final boolean stopOnError = BATCH_MODE_STOP_ON_ERROR.equalsIgnoreCase(headers.get(BATCH_MODE_HEADER));
+        return new StreamingResponse(Response.Status.OK, responseFormat.getMimeType()) {
+            @Override
+            protected void writeBody(OutputStream output) throws IOException {
+                try {
+                    responseFormat.handle(body, requestFormat, stopOnError, output);
+                } finally {
+                    body.skipRemaining();
+                }
+            }
+        };
+    }
 
-    public void route(String uri, JsonRpcServer rpc) {
-        router.put(uri, rpc);
+    /**
+     * GET /dump/hierarchy?format=xml|json&compressed=true|false writes the window hierarchy to
+     * the connection while it is being walked, so the client can parse it as it arrives. The
+     * compressed setting applies to this dump only. The
+     * walk is pruned by maxDepth=n, packages=a,b, clip=left,top,right,bottom,
+     * interactiveOnly=true and root=selector JSON, as in dumpWindowHierarchyFiltered.
+     */
+    private Response newHierarchyDumpResponse(Map<String, String> params) {
+        final DumpOptions options = new DumpOptions();
+        try {
+            if (params.containsKey("format"))
+                options.setFormat(params.get("format"));
+            if (params.containsKey("maxDepth"))
+                options.setMaxDepth(Integer.parseInt(params.get("maxDepth")));
+            if (params.containsKey("packages"))
+                options.setPackages(params.get("packages").split(","));
+            if (params.containsKey("clip")) {
+                String[] edges = params.get("clip").split(",");
+                if (edges.length != 4)
+                    return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid clip!");
+                android.graphics.Rect clip = new android.graphics.Rect(Integer.parseInt(edges[0].trim()),
+                        Integer.parseInt(edges[1].trim()), Integer.parseInt(edges[2].trim()), Integer.parseInt(edges[3].trim()));
+                options.setClip(Rect.from(clip));
+            }
+            if (params.containsKey("root"))
+                options.setRoot(JsonRpcFormat.newObjectMapper(JsonRpcFormat.JSON).readValue(params.get("root"), Selector.class));
+            options.setInteractiveOnly(Boolean.parseBoolean(params.get("interactiveOnly")));
+        } catch (NumberFormatException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid number!");
+        } catch (IOException e) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid root selector!");
+        }
+        String mimeType;
+        if (UiDevice.HIERARCHY_FORMAT_XML.equals(options.getFormat()))
+            mimeType = "application/xml; charset=utf-8";
+        else if (UiDevice.HIERARCHY_FORMAT_JSON.equals(options.getFormat()))
+            mimeType = "application/json; charset=utf-8";
+        else
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Unknown format!");
+        final UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        final boolean setCompressed = params.containsKey("compressed");
+        final boolean compressed = Boolean.parseBoolean(params.get("compressed"));
+        return new StreamingResponse(Response.Status.OK, mimeType) {
+            @Override
+            protected void writeBody(OutputStream output) throws IOException {
+                if (!setCompressed) {
+                    device.dumpWindowHierarchy(output, options.getFormat(), options.toHierarchyFilter());
+                    return;
+                }
+                // Only this dump is compressed or not; later calls see the setting as it was
+                boolean previous = device.isCompressedLayoutHeirarchy();
+                device.setCompressedLayoutHeirarchy(compressed);
+                try {
+                    device.dumpWindowHierarchy(output, options.getFormat(), options.toHierarchyFilter());
+                } finally {
+                    device.setCompressedLayoutHeirarchy(previous);
+                }
+            }
+        };
     }
 
     @Override
@@ -62,6 +356,16 @@ public class AutomatorHttpServer extends NanoHTTPD {
             return newFixedLengthResponse("Server stopped!!!");
         } else if ("/ping".equals(uri)) {
             return newFixedLengthResponse("pong");
+        } else if ("/cancel".equals(uri)) {
+            // /cancel?id=<JSON-RPC request id> interrupts that call if it is still running
+            if (params.get("id") == null)
+                return newFixedLengthResponse(Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Missing id!");
+            boolean cancelled = inFlightCalls.cancel(params.get("id"));
+            return newFixedLengthResponse(Response.Status.OK, "application/json", String.valueOf(cancelled));
+        } else if ("/metrics".equals(uri)) {
+            return StreamingResponse.fromBytes(Response.Status.OK, RpcMetrics.CONTENT_TYPE, metrics.toPrometheus().getBytes());
+        } else if ("/dump/hierarchy".equals(uri)) {
+            return newHierarchyDumpResponse(params);
         } else if ("/screenshot/0".equals(uri)) {
             float scale = 1.0f;
             if (params.containsKey("scale")) {
@@ -86,19 +390,22 @@ public class AutomatorHttpServer extends NanoHTTPD {
                 Log.e(e.getMessage());
                 return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Server Error!!!");
             }
+        } else if (uri.contains(ASYNC_PATH + "/") && router.containsKey(uri.substring(0, uri.lastIndexOf(ASYNC_PATH + "/")))) {
+            return pollAsyncCall(uri.substring(uri.lastIndexOf('/') + 1), params.get("wait"));
         } else if (router.containsKey(uri)) {
-            JsonRpcServer jsonRpcServer = router.get(uri);
-            ByteArrayInputStream is = null;
+            JsonRpcFormat format = negotiate(router.get(uri), JsonRpcFormat.JSON);
+            String data = null;
             if (params.get("NanoHttpd.QUERY_STRING") != null)
-                is = new ByteArrayInputStream(params.get("NanoHttpd.QUERY_STRING").getBytes());
+                data = params.get("NanoHttpd.QUERY_STRING");
             else if (files.get("postData") != null)
-                is = new ByteArrayInputStream(files.get("postData").getBytes());
+                data = files.get("postData");
             else
                 return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Invalid http post data!");
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             try {
-                jsonRpcServer.handleRequest(is, os);
-                return newFixedLengthResponse(Response.Status.OK, "application/json", new ByteArrayInputStream(os.toByteArray()), os.size());
+                boolean stopOnError = BATCH_MODE_STOP_ON_ERROR.equalsIgnoreCase(headers.get(BATCH_MODE_HEADER));
+                format.handle(new ByteArrayInputStream(data.getBytes()), format, stopOnError, os);
+                return StreamingResponse.fromBytes(Response.Status.OK, format.getMimeType(), os.toByteArray());
             } catch (IOException e) {
                 return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal Server Error!!!");
             }
@@ -29,6 +29,8 @@ import android.support.test.wqhyy.UiObjectNotFoundException;
 import com.googlecode.jsonrpc4j.JsonRpcError;
 import com.googlecode.jsonrpc4j.JsonRpcErrors;
 
+import java.io.IOException;
+
 public interface AutomatorService {
     final static int ERROR_CODE_BASE = -32000;
 
@@ -158,6 +160,36 @@ public interface AutomatorService {
      */
     String dumpWindowHierarchy(boolean compressed);
 
+    /**
+     * Helper method used for debugging to dump the current window's layout hierarchy in the given format.
+     *
+     * @param compressed use compressed layout hierarchy or not using setCompressedLayoutHeirarchy method. Ignore the parameter in case the API level lt 18.
+     * @param format     "xml" for the output of dumpWindowHierarchy, or "json" for a compact tree with short keys, bit packed flags and bounds arrays.
+     * @return the layout hierarchy in the given format.
+     */
+    String dumpWindowHierarchyAs(boolean compressed, String format);
+
+    /**
+     * Dump only part of the current window's layout hierarchy; pruned subtrees are not walked.
+     *
+     * @param options format, max depth, package allow-list, root selector, clip rect and interactive only setting of the dump.
+     * @return the layout hierarchy in the given format.
+     */
+    String dumpWindowHierarchyFiltered(DumpOptions options);
+
+    /**
+     * Capture the current window hierarchy as a new version and return only the nodes added, changed or removed since an earlier version.
+     * Nodes are keyed by window id and the path of sibling keys leading to them: the resource id entry, or the class name without package, numbered among the siblings with the same key.
+     * A node inserted before siblings with its own key shifts their numbers, so such siblings and their subtrees show up as changed, removed and added.
+     * The last few versions are retained on the device, numbered across all clients.
+     *
+     * @param compressed   use compressed layout hierarchy for this capture only; the setting is restored afterwards.
+     * @param sinceVersion version returned by an earlier call, or 0 for every node.
+     * @return the new version with the added, changed and removed nodes; full is set if sinceVersion was not retained or was captured with the other compressed setting.
+     * @throws IOException if the hierarchy could not be captured
+     */
+    HierarchyDiff dumpWindowHierarchyDiff(boolean compressed, long sinceVersion) throws IOException;
+
     /**
      * Take a screenshot of current window and store it as PNG The screenshot is adjusted per screen rotation
      *
@@ -1004,4 +1036,31 @@ public interface AutomatorService {
      */
     @JsonRpcErrors({@JsonRpcError(exception = NotImplementedException.class, code = ERROR_CODE_BASE - 3)})
     ConfiguratorInfo setConfigurator(ConfiguratorInfo info) throws NotImplementedException;
+
+    /**
+     * Get the settings and hit/miss/eviction statistics of the named UiObject registry.
+     *
+     * @return registry information.
+     */
+    UiObjectRegistryInfo getUiObjectRegistryInfo();
+
+    /**
+     * Set the TTL and maximum size of the named UiObject registry; values that are not positive are left unchanged.
+     *
+     * @param info the registry settings to be set.
+     * @return registry information.
+     */
+    UiObjectRegistryInfo setUiObjectRegistryInfo(UiObjectRegistryInfo info);
+
+    /**
+     * Answer exist, count, objInfo, objInfoOfAllInstances and getText for selectors from a snapshot of the active window, captured once and dropped when its content changes. Selectors the snapshot has no match for are searched live, as without the snapshot; getText uses the snapshot only for selectors it would otherwise resolve in the active window.
+     *
+     * @param enabled true to use the snapshot, false to always query the live hierarchy.
+     */
+    void setSnapshotEnabled(boolean enabled);
+
+    /**
+     * get snapshot mode status
+     */
+    boolean isSnapshotEnabled();
 }
@@ -31,6 +31,7 @@ import android.os.SystemClock;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.wqhyy.Configurator;
 import android.support.test.wqhyy.Direction;
+import android.support.test.wqhyy.HierarchyFilter;
 import android.support.test.wqhyy.StaleObjectException;
 import android.support.test.wqhyy.UiCollection;
 import android.support.test.wqhyy.UiDevice;
@@ -43,6 +44,7 @@ import android.support.test.wqhyy.Until;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
 
 import com.github.uiautomator.ToastHelper;
 import com.github.uiautomator.stub.watcher.ClickUiObjectWatcher;
@@ -53,24 +55,23 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.HashSet;
-import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
 
 
 public class AutomatorServiceImpl implements AutomatorService {
 
     private final HashSet<String> watchers = new HashSet<String>();
-    private final ConcurrentHashMap<String, UiObject> uiObjects = new ConcurrentHashMap<String, UiObject>();
+    private final UiObjectRegistry uiObjects = new UiObjectRegistry();
 
     private UiDevice device;
     private UiAutomation uiAutomation;
+    private final TreeSnapshotCache snapshots;
+    private final HierarchyVersions hierarchyVersions = new HierarchyVersions();
 
     public AutomatorServiceImpl() {
         this.uiAutomation = InstrumentationRegistry.getInstrumentation().getUiAutomation();
         this.device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        this.snapshots = new TreeSnapshotCache(device, uiAutomation);
 
         // Reset Configurator Wait Timeout
         Configurator configurator = Configurator.getInstance();
@@ -233,10 +234,36 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public String dumpWindowHierarchy(boolean compressed) {
-        device.setCompressedLayoutHeirarchy(compressed);
+        return dumpWindowHierarchyAs(compressed, UiDevice.HIERARCHY_FORMAT_XML);
+    }
+
+    /**
+     * Helper method used for debugging to dump the current window's layout hierarchy in the given format.
+     *
+     * @param compressed use compressed layout hierarchy or not using setCompressedLayoutHeirarchy method. Ignore the parameter in case the API level lt 18.
+     * @param format     "xml" or "json"
+     * @return the layout hierarchy in the given format.
+     */
+    @Override
+    public String dumpWindowHierarchyAs(boolean compressed, String format) {
+        DumpOptions options = new DumpOptions();
+        options.setCompressed(compressed);
+        options.setFormat(format);
+        return dumpWindowHierarchyFiltered(options);
+    }
+
+    /**
+     * Dump only part of the current window's layout hierarchy; pruned subtrees are not walked.
+     *
+     * @param options format, max depth, package allow-list, root selector, clip rect and interactive only setting of the dump.
+     * @return the layout hierarchy in the given format.
+     */
+    @Override
+    public String dumpWindowHierarchyFiltered(DumpOptions options) {
+        device.setCompressedLayoutHeirarchy(options.isCompressed());
         try {
             ByteArrayOutputStream os = new ByteArrayOutputStream();
-            device.dumpWindowHierarchy(os);
+            device.dumpWindowHierarchy(os, options.getFormat(), options.toHierarchyFilter());
             os.close();
             return os.toString("UTF-8");
         } catch (FileNotFoundException e) {
@@ -248,6 +275,25 @@ public class AutomatorServiceImpl implements AutomatorService {
         return null;
     }
 
+    /**
+     * Capture the current window hierarchy as a new version and return the nodes that changed since an earlier version.
+     *
+     * @param compressed   use compressed layout hierarchy or not using setCompressedLayoutHeirarchy method.
+     * @param sinceVersion version returned by an earlier call, or 0 for every node.
+     * @return the new version with the added, changed and removed nodes.
+     */
+    @Override
+    public HierarchyDiff dumpWindowHierarchyDiff(boolean compressed, long sinceVersion) throws IOException {
+        // A diff must not change how later dumps and searches see the hierarchy
+        boolean previous = device.isCompressedLayoutHeirarchy();
+        device.setCompressedLayoutHeirarchy(compressed);
+        try {
+            return hierarchyVersions.diff(device.captureWindowHierarchy(new HierarchyFilter()), compressed, sinceVersion);
+        } finally {
+            device.setCompressedLayoutHeirarchy(previous);
+        }
+    }
+
     /**
      * Take a screenshot of current window and store it as PNG The screenshot is adjusted per screen rotation
      *
@@ -579,6 +625,15 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public String getText(Selector obj) throws UiObjectNotFoundException {
+        // toUiObject2 takes the first match in any window, which need not be the active one the
+        // snapshot holds, so only selectors it cannot resolve are answered from the snapshot
+        boolean anyWindow = !obj.checkBySelectorNull(obj) && obj.getChildOrSibling().length == 0;
+        TreeSnapshot snapshot = anyWindow ? null : snapshots.get();
+        if (snapshot != null) {
+            int node = snapshot.find(obj);
+            if (node >= 0)
+                return snapshot.getText(node);
+        }
         if (obj.toUiObject2() == null) {
             return device.findObject(obj.toUiSelector()).getText();
         } else {
@@ -752,6 +807,10 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public boolean exist(Selector obj) {
+        // The snapshot holds only the active window; a miss may still match in another one.
+        TreeSnapshot snapshot = snapshots.get();
+        if (snapshot != null && snapshot.find(obj) >= 0)
+            return true;
         if (obj.getChildOrSibling().length == 0 && obj.toBySelector() != null)
             return device.wait(Until.hasObject(obj.toBySelector()), 0L);
         return device.findObject(obj.toUiSelector()).exists();
@@ -766,6 +825,12 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public ObjInfo objInfo(Selector obj) throws UiObjectNotFoundException {
+        TreeSnapshot snapshot = snapshots.get();
+        if (snapshot != null) {
+            int node = snapshot.find(obj);
+            if (node >= 0)
+                return snapshot.getObjInfo(node);
+        }
         return ObjInfo.getObjInfo(device.findObject(obj.toUiSelector()));
         // HotFix(ssx): Here always raise StaleObjectException, so not use UiObject2 here
         // Refs: https://github.com/openatx/uiautomator2/issues/138
@@ -783,30 +848,17 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public int count(Selector obj) {
+        TreeSnapshot snapshot = snapshots.get();
+        if (snapshot != null) {
+            int count = snapshot.count(obj);
+            if (count > 0)
+                return count;
+        }
         if ((obj.deepSelector().getMask() & Selector.MASK_INSTANCE) > 0) {
             if (device.findObject(obj.toUiSelector()).exists()) return 1;
             else return 0;
         } else {
-            UiSelector sel = obj.toUiSelector();
-            if (!device.findObject(sel).exists()) return 0;
-            int low = 1;
-            int high = 2;
-
-            // Note: can not use `sel = sel.instance(high -1)`
-            // because this will change first selector in chain not last.
-            sel = obj.toUiSelector(high - 1);
-            while (device.findObject(sel).exists()) {
-                low = high;
-                high = high * 2;
-                sel = obj.toUiSelector(high - 1);
-            }
-            while (high > low + 1) {
-                int mid = (low + high) / 2;
-                sel = obj.toUiSelector(mid - 1);
-                if (device.findObject(sel).exists()) low = mid;
-                else high = mid;
-            }
-            return low;
+            return device.findAccessibilityNodeInfos(obj.toUiSelector()).size();
         }
     }
 
@@ -818,22 +870,35 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public ObjInfo[] objInfoOfAllInstances(Selector obj) {
-        int total = count(obj);
-        ObjInfo objs[] = new ObjInfo[total];
-        if ((obj.getMask() & Selector.MASK_INSTANCE) > 0 && total > 0) {
-            try {
-                objs[0] = objInfo(obj);
-            } catch (UiObjectNotFoundException e) {
+        TreeSnapshot snapshot = snapshots.get();
+        if (snapshot != null) {
+            int[] nodes;
+            if ((obj.deepSelector().getMask() & Selector.MASK_INSTANCE) > 0) {
+                int node = snapshot.find(obj);
+                nodes = node >= 0 ? new int[]{node} : new int[0];
+            } else {
+                nodes = snapshot.findAll(obj);
             }
-        } else {
-            UiSelector sel = obj.toUiSelector();
-            for (int i = 0; i < total; i++) {
-                try {
-                    objs[i] = ObjInfo.getObjInfo(sel.instance(i));
-                } catch (UiObjectNotFoundException e) {
+            if (nodes.length > 0) {
+                ObjInfo objs[] = new ObjInfo[nodes.length];
+                for (int i = 0; i < nodes.length; i++) {
+                    objs[i] = snapshot.getObjInfo(nodes[i]);
                 }
+                return objs;
+            }
+        }
+        if ((obj.deepSelector().getMask() & Selector.MASK_INSTANCE) > 0) {
+            try {
+                return new ObjInfo[]{objInfo(obj)};
+            } catch (UiObjectNotFoundException e) {
+                return new ObjInfo[0];
             }
         }
+        List<AccessibilityNodeInfo> nodes = device.findAccessibilityNodeInfos(obj.toUiSelector());
+        ObjInfo objs[] = new ObjInfo[nodes.size()];
+        for (int i = 0; i < objs.length; i++) {
+            objs[i] = ObjInfo.getObjInfo(nodes.get(i), device);
+        }
         return objs;
     }
 
@@ -1138,25 +1203,15 @@ public class AutomatorServiceImpl implements AutomatorService {
      * @return the name of the UiObject
      */
     private String addUiObject(UiObject obj) {
-        String key = UUID.randomUUID().toString();
-        uiObjects.put(key, obj);
-        // schedule the clear timer.
-        Timer clearTimer = new Timer();
-        clearTimer.schedule(new ClearUiObjectTimerTask(key), 60000);
-        return key;
+        return uiObjects.add(obj);
     }
 
-    class ClearUiObjectTimerTask extends TimerTask {
-        String name;
-
-        public ClearUiObjectTimerTask(String name) {
-            this.name = name;
-        }
+    public UiObjectRegistry getUiObjectRegistry() {
+        return uiObjects;
+    }
 
-        @Override
-        public void run() {
-            uiObjects.remove(name);
-        }
+    public TreeSnapshotCache getTreeSnapshotCache() {
+        return snapshots;
     }
 
     /**
@@ -1287,13 +1342,13 @@ public class AutomatorServiceImpl implements AutomatorService {
      */
     @Override
     public String[] getUiObjects() {
-        Set<String> strings = uiObjects.keySet();
-        return strings.toArray(new String[strings.size()]);
+        return uiObjects.keys();
     }
 
     private UiObject getUiObject(String name) throws UiObjectNotFoundException {
-        if (uiObjects.containsKey(name)) {
-            return uiObjects.get(name);
+        UiObject obj = uiObjects.get(name);
+        if (obj != null) {
+            return obj;
         } else {
             throw new UiObjectNotFoundException("UiObject " + name + " not found!");
         }
@@ -1566,4 +1621,36 @@ public class AutomatorServiceImpl implements AutomatorService {
         ConfiguratorInfo.setConfigurator(info);
         return new ConfiguratorInfo();
     }
+
+    /**
+     * Get the settings and hit/miss/eviction statistics of the named UiObject registry.
+     *
+     * @return registry information.
+     */
+    @Override
+    public UiObjectRegistryInfo getUiObjectRegistryInfo() {
+        return uiObjects.getInfo();
+    }
+
+    /**
+     * Set the TTL and maximum size of the named UiObject registry; values that are not positive are left unchanged.
+     *
+     * @param info the registry settings to be set.
+     * @return registry information.
+     */
+    @Override
+    public UiObjectRegistryInfo setUiObjectRegistryInfo(UiObjectRegistryInfo info) {
+        uiObjects.configure(info.getTtl(), info.getMaxSize());
+        return uiObjects.getInfo();
+    }
+
+    @Override
+    public void setSnapshotEnabled(boolean enabled) {
+        snapshots.setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isSnapshotEnabled() {
+        return snapshots.isEnabled();
+    }
 }
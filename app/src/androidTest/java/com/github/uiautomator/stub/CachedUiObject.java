@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.UiObject;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An UiObject that remembers the node it last resolved to, so repeated actions on a registered
+ * object do not walk the whole hierarchy each time.
+ *
+ * Only selectors that can be checked against a single node are cached; instance, index, child
+ * and parent selectors always search. The node is reused while no window or content change has
+ * been seen since it was found, {@link AccessibilityNodeInfo#refresh()} succeeds and the
+ * refreshed node still matches the selector; otherwise the selector is searched again as usual.
+ */
+public class CachedUiObject extends UiObject {
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final boolean cacheable;
+    private AccessibilityNodeInfo cachedNode;
+    private long cachedGeneration;
+
+    @SuppressWarnings("deprecation")
+    public CachedUiObject(UiObject source) {
+        super(source.getSelector());
+        cacheable = getSelector().isSingleNodeSelector();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    protected AccessibilityNodeInfo findAccessibilityNodeInfo(long timeout) {
+        if (!cacheable)
+            return super.findAccessibilityNodeInfo(timeout);
+        long generation = AccessibilityEventListener.getContentGeneration();
+        synchronized (this) {
+            if (cachedNode != null && cachedGeneration == generation && cachedNode.refresh()
+                    && getSelector().matches(cachedNode)) {
+                hits.incrementAndGet();
+                return cachedNode;
+            }
+            cachedNode = null;
+        }
+        misses.incrementAndGet();
+        AccessibilityNodeInfo node = super.findAccessibilityNodeInfo(timeout);
+        if (node != null) {
+            synchronized (this) {
+                cachedNode = node;
+                cachedGeneration = generation;
+            }
+        }
+        return node;
+    }
+}
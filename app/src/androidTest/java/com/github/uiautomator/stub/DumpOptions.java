@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.HierarchyFilter;
+import android.support.test.wqhyy.UiDevice;
+
+/**
+ * What a window hierarchy dump holds: its format and the filters that prune the walk. Fields
+ * that are not set dump everything, as dumpWindowHierarchy does.
+ */
+public class DumpOptions {
+
+    public String getFormat() {
+        return _format;
+    }
+
+    public void setFormat(String _format) {
+        this._format = _format;
+    }
+
+    public boolean isCompressed() {
+        return _compressed;
+    }
+
+    public void setCompressed(boolean _compressed) {
+        this._compressed = _compressed;
+    }
+
+    public int getMaxDepth() {
+        return _maxDepth;
+    }
+
+    public void setMaxDepth(int _maxDepth) {
+        this._maxDepth = _maxDepth;
+    }
+
+    public String[] getPackages() {
+        return _packages;
+    }
+
+    public void setPackages(String[] _packages) {
+        this._packages = _packages;
+    }
+
+    public Selector getRoot() {
+        return _root;
+    }
+
+    public void setRoot(Selector _root) {
+        this._root = _root;
+    }
+
+    public Rect getClip() {
+        return _clip;
+    }
+
+    public void setClip(Rect _clip) {
+        this._clip = _clip;
+    }
+
+    public boolean isInteractiveOnly() {
+        return _interactiveOnly;
+    }
+
+    public void setInteractiveOnly(boolean _interactiveOnly) {
+        this._interactiveOnly = _interactiveOnly;
+    }
+
+    public HierarchyFilter toHierarchyFilter() {
+        return new HierarchyFilter()
+                .setMaxDepth(_maxDepth)
+                .setPackages(_packages)
+                .setRoot(_root == null ? null : _root.toUiSelector())
+                .setClip(_clip == null ? null : _clip.toRect())
+                .setInteractiveOnly(_interactiveOnly);
+    }
+
+    private String _format = UiDevice.HIERARCHY_FORMAT_XML;
+    private boolean _compressed;
+    private int _maxDepth = -1;
+    private String[] _packages;
+    private Selector _root;
+    private Rect _clip;
+    private boolean _interactiveOnly;
+}
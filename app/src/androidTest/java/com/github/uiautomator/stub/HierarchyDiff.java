@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The nodes added, changed and removed between a retained dump and a new one. When the earlier
+ * version is no longer retained, full is set and every node is listed as added.
+ */
+public class HierarchyDiff {
+
+    public long getVersion() {
+        return _version;
+    }
+
+    public void setVersion(long _version) {
+        this._version = _version;
+    }
+
+    public long getSince() {
+        return _since;
+    }
+
+    public void setSince(long _since) {
+        this._since = _since;
+    }
+
+    public boolean isFull() {
+        return _full;
+    }
+
+    public void setFull(boolean _full) {
+        this._full = _full;
+    }
+
+    public List<HierarchyNodeInfo> getAdded() {
+        return _added;
+    }
+
+    public void setAdded(List<HierarchyNodeInfo> _added) {
+        this._added = _added;
+    }
+
+    public List<HierarchyNodeInfo> getChanged() {
+        return _changed;
+    }
+
+    public void setChanged(List<HierarchyNodeInfo> _changed) {
+        this._changed = _changed;
+    }
+
+    public List<String> getRemoved() {
+        return _removed;
+    }
+
+    public void setRemoved(List<String> _removed) {
+        this._removed = _removed;
+    }
+
+    private long _version;
+    private long _since;
+    private boolean _full;
+    private List<HierarchyNodeInfo> _added = new ArrayList<HierarchyNodeInfo>();
+    private List<HierarchyNodeInfo> _changed = new ArrayList<HierarchyNodeInfo>();
+    private List<String> _removed = new ArrayList<String>();
+}
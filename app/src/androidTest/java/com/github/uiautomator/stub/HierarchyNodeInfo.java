@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.HierarchyNode;
+
+/**
+ * A node of a hierarchy diff; flags holds one bit per boolean attribute, see {@link HierarchyNode}.
+ */
+public class HierarchyNodeInfo {
+
+    public static HierarchyNodeInfo from(HierarchyNode node) {
+        HierarchyNodeInfo info = new HierarchyNodeInfo();
+        info._id = node.getId();
+        info._parentId = node.getParentId();
+        info._index = node.getIndex();
+        info._text = node.getText();
+        info._resourceId = node.getResourceId();
+        info._className = node.getClassName();
+        info._packageName = node.getPackageName();
+        info._contentDescription = node.getContentDescription();
+        info._flags = node.getFlags();
+        android.graphics.Rect bounds = node.getBounds();
+        info._bounds = bounds == null ? null : Rect.from(bounds);
+        return info;
+    }
+
+    public String getId() {
+        return _id;
+    }
+
+    public void setId(String _id) {
+        this._id = _id;
+    }
+
+    public String getParentId() {
+        return _parentId;
+    }
+
+    public void setParentId(String _parentId) {
+        this._parentId = _parentId;
+    }
+
+    public int getIndex() {
+        return _index;
+    }
+
+    public void setIndex(int _index) {
+        this._index = _index;
+    }
+
+    public String getText() {
+        return _text;
+    }
+
+    public void setText(String _text) {
+        this._text = _text;
+    }
+
+    public String getResourceId() {
+        return _resourceId;
+    }
+
+    public void setResourceId(String _resourceId) {
+        this._resourceId = _resourceId;
+    }
+
+    public String getClassName() {
+        return _className;
+    }
+
+    public void setClassName(String _className) {
+        this._className = _className;
+    }
+
+    public String getPackageName() {
+        return _packageName;
+    }
+
+    public void setPackageName(String _packageName) {
+        this._packageName = _packageName;
+    }
+
+    public String getContentDescription() {
+        return _contentDescription;
+    }
+
+    public void setContentDescription(String _contentDescription) {
+        this._contentDescription = _contentDescription;
+    }
+
+    public int getFlags() {
+        return _flags;
+    }
+
+    public void setFlags(int _flags) {
+        this._flags = _flags;
+    }
+
+    public Rect getBounds() {
+        return _bounds;
+    }
+
+    public void setBounds(Rect _bounds) {
+        this._bounds = _bounds;
+    }
+
+    private String _id;
+    private String _parentId;
+    private int _index;
+    private String _text;
+    private String _resourceId;
+    private String _className;
+    private String _packageName;
+    private String _contentDescription;
+    private int _flags;
+    private Rect _bounds;
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.HierarchyNode;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers hierarchy captures and keeps the last few, so a client can ask for the changes since
+ * the version it last saw instead of the whole tree.
+ *
+ * Versions are global: every client's capture gets the next number and counts towards the
+ * retained ones, so with several clients a version may be dropped before its client asks again
+ * and the answer is then a full one.
+ */
+public class HierarchyVersions {
+    private static final int RETAINED_VERSIONS = 4;
+
+    private static class Version {
+        final boolean compressed;
+        final Map<String, HierarchyNode> nodes;
+
+        Version(boolean compressed, Map<String, HierarchyNode> nodes) {
+            this.compressed = compressed;
+            this.nodes = nodes;
+        }
+    }
+
+    private long lastVersion = 0;
+    private final Map<Long, Version> retained =
+            new LinkedHashMap<Long, Version>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Version> eldest) {
+                    return size() > RETAINED_VERSIONS;
+                }
+            };
+
+    /**
+     * Retains the captured nodes as a new version.
+     *
+     * @param compressed   whether the nodes were captured from the compressed hierarchy
+     * @param sinceVersion the version to compare against; 0, a version no longer retained or one
+     *                     captured with the other compression setting lists every node as added
+     */
+    public synchronized HierarchyDiff diff(List<HierarchyNode> nodes, boolean compressed, long sinceVersion) {
+        Map<String, HierarchyNode> current = new LinkedHashMap<String, HierarchyNode>();
+        for (HierarchyNode node : nodes)
+            current.put(node.getId(), node);
+        Version since = retained.get(sinceVersion);
+        // Compression changes which nodes exist and so their id paths; nothing is comparable
+        Map<String, HierarchyNode> base = since != null && since.compressed == compressed ? since.nodes : null;
+
+        HierarchyDiff diff = new HierarchyDiff();
+        diff.setVersion(++lastVersion);
+        diff.setSince(base != null ? sinceVersion : 0);
+        diff.setFull(base == null);
+        for (HierarchyNode node : current.values()) {
+            HierarchyNode old = base != null ? base.get(node.getId()) : null;
+            if (old == null)
+                diff.getAdded().add(HierarchyNodeInfo.from(node));
+            else if (!old.sameAs(node))
+                diff.getChanged().add(HierarchyNodeInfo.from(node));
+        }
+        if (base != null) {
+            for (String id : base.keySet()) {
+                if (!current.containsKey(id))
+                    diff.getRemoved().add(id);
+            }
+        }
+        retained.put(lastVersion, new Version(compressed, current));
+        return diff;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * JSON-RPC calls that are currently executing, by request id, with the thread running them.
+ *
+ * At most a fixed number of calls execute at once, whichever connection they came from; the
+ * others wait for a slot. Connections that are open but idle do not take one.
+ *
+ * Cancelling a call interrupts its thread; the wait, scroll and gesture loops of the automator
+ * check for the interrupt and end the call with a CancellationException. Ids are expected to be
+ * unique among in-flight calls; if two clients reuse one, the latest call is the one cancelled.
+ */
+public class InFlightCalls {
+    private final Map<String, Thread> calls = new HashMap<String, Thread>();
+    private final Semaphore slots;
+
+    /**
+     * @param maxCalls max number of calls executing at the same time.
+     */
+    public InFlightCalls(int maxCalls) {
+        slots = new Semaphore(maxCalls, true);
+    }
+
+    /**
+     * The registry key of a request id: strings by value, numbers by their JSON text.
+     */
+    public static String key(JsonNode id) {
+        if (id == null || id.isNull())
+            return null;
+        return id.isTextual() ? id.asText() : id.toString();
+    }
+
+    /**
+     * Waits for a free slot, then registers the call if it has an id. Every successful begin must
+     * be paired with an {@link #end(String)}.
+     */
+    public void begin(String id) throws InterruptedException {
+        slots.acquire();
+        if (id != null) {
+            synchronized (this) {
+                calls.put(id, Thread.currentThread());
+            }
+        }
+    }
+
+    public void end(String id) {
+        synchronized (this) {
+            if (id != null && calls.get(id) == Thread.currentThread())
+                calls.remove(id);
+            // A cancel that arrived as the call returned must not leak into the next call on this thread.
+            Thread.interrupted();
+        }
+        slots.release();
+    }
+
+    /**
+     * @return true if a call with this id was running and has been interrupted
+     */
+    public synchronized boolean cancel(String id) {
+        Thread thread = calls.get(id);
+        if (thread == null)
+            return false;
+        Log.d("Cancel call " + id + " on " + thread.getName());
+        thread.interrupt();
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Dispatches JSON-RPC 2.0 batch requests one element at a time through a {@link JsonRpcFormat}
+ * and collects the responses into a single array, in the encoding of that format.
+ *
+ * Elements are executed in array order. Notifications produce no response element. In
+ * stop-on-error mode the batch ends at the first error response, and later elements are not
+ * executed and get no response.
+ */
+public class JsonRpcBatchHandler {
+    private static final int CBOR_INDEFINITE_ARRAY = 0x9F;
+    private static final int CBOR_BREAK = 0xFF;
+
+    private final JsonRpcFormat format;
+
+    public JsonRpcBatchHandler(JsonRpcFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Executes the batch and writes the array response to output. Nothing is written when every
+     * element of the batch is a notification.
+     */
+    public void handle(JsonNode batch, boolean stopOnError, OutputStream output) throws IOException {
+        if (batch.size() == 0) {
+            format.writeError(JsonRpcFormat.INVALID_REQUEST_ERROR_CODE, "Invalid Request", output);
+            return;
+        }
+        // Each element response is a complete value in the format's encoding, so the array is
+        // framed around the raw bytes: comma-separated in JSON, an indefinite-length array in CBOR.
+        boolean binary = format.isBinary();
+        boolean started = false;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (JsonNode request : batch) {
+            buffer.reset();
+            boolean ok = format.dispatch(request, buffer);
+            if (buffer.size() == 0)
+                continue; // notification
+            if (!started) {
+                output.write(binary ? CBOR_INDEFINITE_ARRAY : '[');
+                started = true;
+            } else if (!binary) {
+                output.write(',');
+            }
+            buffer.writeTo(output);
+            if (stopOnError && !ok)
+                break;
+        }
+        if (!started)
+            return;
+        output.write(binary ? CBOR_BREAK : ']');
+        output.flush();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * One wire encoding of a JSON-RPC route: the mime type, the Jackson mapper for it and the
+ * {@link JsonRpcNodeServer} built on that mapper.
+ */
+public class JsonRpcFormat {
+    public static final String JSON = "application/json";
+    public static final String CBOR = "application/cbor";
+    public static final int PARSE_ERROR_CODE = -32700;
+    public static final int INVALID_REQUEST_ERROR_CODE = -32600;
+
+    private final String mimeType;
+    private final ObjectMapper mapper;
+    private final JsonRpcNodeServer server;
+    private final JsonRpcBatchHandler batchHandler;
+    private InFlightCalls inFlightCalls;
+
+    public JsonRpcFormat(String mimeType, ObjectMapper mapper, JsonRpcNodeServer server) {
+        this.mimeType = mimeType;
+        this.mapper = mapper;
+        this.server = server;
+        this.batchHandler = new JsonRpcBatchHandler(this);
+    }
+
+    public static ObjectMapper newObjectMapper(String mimeType) {
+        return CBOR.equals(mimeType) ? new ObjectMapper(new CBORFactory()) : new ObjectMapper();
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    public JsonRpcNodeServer getServer() {
+        return server;
+    }
+
+    public boolean isBinary() {
+        return !JSON.equals(mimeType);
+    }
+
+    /**
+     * Calls take a slot here while they run, and those with an id are registered so they can be
+     * cancelled.
+     */
+    public void setInFlightCalls(InFlightCalls inFlightCalls) {
+        this.inFlightCalls = inFlightCalls;
+    }
+
+    /**
+     * Executes a single request or a batch read from input and writes the response in this format.
+     * A request encoded in another format is transcoded; requests are small, so only the response
+     * is streamed.
+     */
+    public void handle(InputStream input, JsonRpcFormat requestFormat, boolean stopOnError, OutputStream output) throws IOException {
+        JsonNode request;
+        try {
+            request = requestFormat.mapper.readTree(input);
+        } catch (JsonProcessingException e) {
+            request = null;
+        }
+        handle(request, stopOnError, output);
+    }
+
+    /**
+     * Same as {@link #handle(InputStream, JsonRpcFormat, boolean, OutputStream)} for a request
+     * that has already been parsed; null stands for one that could not be.
+     */
+    public void handle(JsonNode request, boolean stopOnError, OutputStream output) throws IOException {
+        if (request == null)
+            writeError(PARSE_ERROR_CODE, "Parse error", output);
+        else if (request.isArray())
+            batchHandler.handle(request, stopOnError, output);
+        else
+            dispatch(request, output);
+    }
+
+    /**
+     * Executes one request; a notification writes nothing.
+     *
+     * @return false if the response written is an error
+     */
+    public boolean dispatch(JsonNode request, OutputStream output) throws IOException {
+        String id = InFlightCalls.key(request.get("id"));
+        if (inFlightCalls != null) {
+            try {
+                inFlightCalls.begin(id);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for a free call slot");
+            }
+        }
+        try {
+            return server.handleNode(request, output);
+        } finally {
+            if (inFlightCalls != null)
+                inFlightCalls.end(id);
+        }
+    }
+
+    public void writeError(int code, String message, OutputStream output) throws IOException {
+        ObjectNode response = mapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        ObjectNode error = response.putObject("error");
+        error.put("code", code);
+        error.put("message", message);
+        response.putNull("id");
+        output.write(mapper.writeValueAsBytes(response));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.googlecode.jsonrpc4j.JsonError;
+import com.googlecode.jsonrpc4j.JsonRpcServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link JsonRpcServer} that also executes requests already parsed into a tree, so a request
+ * read to find its id or to split a batch is not written back to bytes and parsed again.
+ */
+public class JsonRpcNodeServer extends JsonRpcServer {
+    public JsonRpcNodeServer(ObjectMapper mapper, Object handler, Class<?> remoteInterface) {
+        super(mapper, handler, remoteInterface);
+    }
+
+    /**
+     * Same as {@link #handleRequest(java.io.InputStream, OutputStream)} for a parsed request.
+     *
+     * @return false if the response written is an error
+     */
+    public boolean handleNode(JsonNode request, OutputStream output) throws IOException {
+        JsonError error = handleJsonNodeRequest(request, output);
+        return error == null || error.getCode() == JsonError.OK.getCode();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoWSD;
+
+/**
+ * A JSON-RPC session over a web socket. Every frame holds one request or a batch, and the
+ * response is sent back on the same socket: text frames carry JSON, binary frames the binary
+ * format of the route (CBOR).
+ *
+ * Besides the {@link AutomatorService} methods the socket understands "subscribe" and
+ * "unsubscribe". Subscribe takes an optional event type mask, as [mask] or
+ * {"eventTypes": mask, "asyncResults": bool}. Subscribed sockets receive accessibility events as
+ * "accessibilityEvent" notifications and finished async calls as "asyncResult" notifications,
+ * encoded like the frame that subscribed. Requests on one socket are executed in order.
+ */
+public class JsonRpcWebSocket extends NanoWSD.WebSocket {
+    public static final String SUBSCRIBE_METHOD = "subscribe";
+    public static final String UNSUBSCRIBE_METHOD = "unsubscribe";
+
+    private final JsonRpcFormat textFormat;
+    private final JsonRpcFormat binaryFormat;
+    private final WebSocketHub hub;
+
+    public JsonRpcWebSocket(NanoHTTPD.IHTTPSession handshakeRequest, Map<String, JsonRpcFormat> formats, WebSocketHub hub) {
+        super(handshakeRequest);
+        JsonRpcFormat defaultFormat = formats.values().iterator().next();
+        this.textFormat = formats.containsKey(JsonRpcFormat.JSON) ? formats.get(JsonRpcFormat.JSON) : defaultFormat;
+        this.binaryFormat = formats.containsKey(JsonRpcFormat.CBOR) ? formats.get(JsonRpcFormat.CBOR) : defaultFormat;
+        this.hub = hub;
+    }
+
+    @Override
+    protected void onOpen() {
+        Log.d("WebSocket opened: " + getHandshakeRequest().getUri());
+    }
+
+    @Override
+    protected void onClose(NanoWSD.WebSocketFrame.CloseCode code, String reason, boolean initiatedByRemote) {
+        Log.d(String.format("WebSocket closed: %s %s", code, reason));
+        hub.unregister(this);
+    }
+
+    @Override
+    protected void onMessage(NanoWSD.WebSocketFrame message) {
+        boolean binary = message.getOpCode() == NanoWSD.WebSocketFrame.OpCode.Binary;
+        JsonRpcFormat format = binary ? binaryFormat : textFormat;
+        byte[] request = message.getBinaryPayload();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            JsonNode tree = null;
+            try {
+                tree = format.getMapper().readTree(request);
+            } catch (IOException e) {
+                // Answered with a parse error below.
+            }
+            if (tree != null && isSubscription(tree))
+                handleSubscription(tree, format, os);
+            else
+                format.handle(tree, false, os);
+            if (os.size() == 0)
+                return; // notification
+            if (format.isBinary())
+                send(os.toByteArray());
+            else
+                send(os.toString("UTF-8"));
+        } catch (IOException e) {
+            Log.e("WebSocket request failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void onPong(NanoWSD.WebSocketFrame pong) {
+    }
+
+    @Override
+    protected void onException(IOException exception) {
+        Log.d("WebSocket error: " + exception.getMessage());
+        hub.unregister(this);
+    }
+
+    private static boolean isSubscription(JsonNode request) {
+        if (!request.isObject())
+            return false;
+        String method = request.path("method").asText();
+        return SUBSCRIBE_METHOD.equals(method) || UNSUBSCRIBE_METHOD.equals(method);
+    }
+
+    private void handleSubscription(JsonNode request, JsonRpcFormat format, ByteArrayOutputStream os) throws IOException {
+        int eventTypes = 0;
+        boolean asyncResults = false;
+        if (SUBSCRIBE_METHOD.equals(request.path("method").asText())) {
+            JsonNode params = request.path("params");
+            JsonNode mask = params.isArray() ? params.path(0) : params.path("eventTypes");
+            eventTypes = mask.isNumber() ? (int) mask.asLong() : WebSocketHub.ALL_EVENTS;
+            asyncResults = params.path("asyncResults").asBoolean(true);
+        }
+        hub.subscribe(this, eventTypes, asyncResults, format.isBinary());
+        if (!request.has("id"))
+            return;
+        ObjectMapper mapper = format.getMapper();
+        ObjectNode response = mapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+        response.put("result", true);
+        mapper.writeValue(os, response);
+    }
+}
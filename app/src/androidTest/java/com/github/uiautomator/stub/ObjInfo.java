@@ -29,38 +29,31 @@ import android.support.test.wqhyy.UiObject;
 import android.support.test.wqhyy.UiObject2;
 import android.support.test.wqhyy.UiObjectNotFoundException;
 import android.support.test.wqhyy.UiSelector;
+import android.view.accessibility.AccessibilityNodeInfo;
 
 public class ObjInfo {
 
     public static final ObjInfo getObjInfo(UiObject obj) throws UiObjectNotFoundException {
-        return new ObjInfo(obj);
+        return new ObjInfo(obj.getAccessibilityNodeInfo(), UiDevice.getInstance(InstrumentationRegistry.getInstrumentation()));
     }
 
     public static final ObjInfo getObjInfo(UiSelector selector) throws UiObjectNotFoundException {
-        return new ObjInfo(UiDevice.getInstance(InstrumentationRegistry.getInstrumentation()).findObject(selector));
+        return getObjInfo(UiDevice.getInstance(InstrumentationRegistry.getInstrumentation()).findObject(selector));
     }
 
 	public static final ObjInfo getObjInfo(UiObject2 obj) {
 		return new ObjInfo(obj);
 	}
 
-	private ObjInfo(UiObject obj) throws UiObjectNotFoundException {
-		this._bounds = Rect.from(obj.getBounds());
-		this._checkable = obj.isCheckable();
-		this._checked = obj.isChecked();
-		this._childCount = obj.getChildCount();
-		this._clickable = obj.isClickable();
-		this._contentDescription = obj.getContentDescription();
-		this._enabled = obj.isEnabled();
-		this._focusable = obj.isFocusable();
-		this._focused = obj.isFocused();
-		this._longClickable = obj.isLongClickable();
-		this._packageName = obj.getPackageName();
-		this._scrollable = obj.isScrollable();
-		this._selected = obj.isSelected();
-		this._text = obj.getText();
-        this._visibleBounds = Rect.from(obj.getVisibleBounds());
-        this._className = obj.getClassName();
+	/**
+	 * Reads the info straight from a node that has already been found, instead of resolving
+	 * the selector again for every property.
+	 */
+	public static final ObjInfo getObjInfo(AccessibilityNodeInfo node, UiDevice device) {
+		return new ObjInfo(node, device);
+	}
+
+	ObjInfo() {
 	}
 
 	private ObjInfo(UiObject2 obj) {
@@ -83,6 +76,32 @@ public class ObjInfo {
 		this._resourceName = obj.getResourceName();
 	}
 
+	private ObjInfo(AccessibilityNodeInfo node, UiDevice device) {
+		android.graphics.Rect bounds = new android.graphics.Rect();
+		node.getBoundsInScreen(bounds);
+		this._bounds = Rect.from(bounds);
+		this._checkable = node.isCheckable();
+		this._checked = node.isChecked();
+		this._childCount = node.getChildCount();
+		this._clickable = node.isClickable();
+		this._contentDescription = safeString(node.getContentDescription());
+		this._enabled = node.isEnabled();
+		this._focusable = node.isFocusable();
+		this._focused = node.isFocused();
+		this._longClickable = node.isLongClickable();
+		this._packageName = safeString(node.getPackageName());
+		this._scrollable = node.isScrollable();
+		this._selected = node.isSelected();
+		this._text = safeString(node.getText());
+		this._visibleBounds = Rect.from(device.getVisibleBounds(node));
+		this._className = safeString(node.getClassName());
+		this._resourceName = node.getViewIdResourceName();
+	}
+
+	private static String safeString(CharSequence cs) {
+		return cs == null ? "" : cs.toString();
+	}
+
 	private Rect _bounds;
 	private Rect _visibleBounds;
 	private int _childCount;
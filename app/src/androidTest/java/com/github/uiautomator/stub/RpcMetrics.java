@@ -0,0 +1,178 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.googlecode.jsonrpc4j.InvocationListener;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records call counts, error counts and latency histograms per {@link AutomatorService} method
+ * and renders them in the Prometheus text exposition format.
+ *
+ * Quantiles (p50/p95/p99) are estimated from the histogram buckets by linear interpolation, the
+ * same way Prometheus' histogram_quantile() does.
+ */
+public class RpcMetrics implements InvocationListener {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+    // Upper bucket bounds in seconds; the last bucket is +Inf.
+    private static final double[] BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<String, MethodStats>();
+    private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+    /**
+     * Contributes further metrics, already in the text format, to {@link #toPrometheus()}.
+     */
+    public interface Collector {
+        void collect(StringBuilder out);
+    }
+
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    private static class MethodStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+
+        void record(long nanos, boolean error) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i])
+                i++;
+            buckets.incrementAndGet(i);
+            totalNanos.addAndGet(nanos);
+            calls.incrementAndGet();
+            if (error)
+                errors.incrementAndGet();
+        }
+
+        double quantile(double q, long[] counts, long count) {
+            if (count == 0)
+                return Double.NaN;
+            double rank = q * count;
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (cumulative + counts[i] >= rank && counts[i] > 0) {
+                    if (i == BUCKETS.length)
+                        return BUCKETS[BUCKETS.length - 1];
+                    double lower = i == 0 ? 0 : BUCKETS[i - 1];
+                    return lower + (BUCKETS[i] - lower) * (rank - cumulative) / counts[i];
+                }
+                cumulative += counts[i];
+            }
+            return BUCKETS[BUCKETS.length - 1];
+        }
+    }
+
+    @Override
+    public void willInvoke(Method method, List<JsonNode> arguments) {
+        startTime.set(System.nanoTime());
+    }
+
+    @Override
+    public void didInvoke(Method method, List<JsonNode> arguments, Object result, Throwable t, long duration) {
+        Long start = startTime.get();
+        startTime.remove();
+        long nanos = start != null ? System.nanoTime() - start : duration * 1000000L;
+        record(method.getName(), nanos, t != null);
+    }
+
+    public void record(String method, long nanos, boolean error) {
+        MethodStats stats = methods.get(method);
+        if (stats == null) {
+            MethodStats created = new MethodStats();
+            stats = methods.putIfAbsent(method, created);
+            if (stats == null)
+                stats = created;
+        }
+        stats.record(nanos, error);
+    }
+
+    public String toPrometheus() {
+        Map<String, MethodStats> sorted = new TreeMap<String, MethodStats>(methods);
+        StringBuilder calls = new StringBuilder();
+        StringBuilder errors = new StringBuilder();
+        StringBuilder histogram = new StringBuilder();
+        StringBuilder quantiles = new StringBuilder();
+        calls.append("# HELP uiautomator_rpc_calls_total JSON-RPC calls by method.\n");
+        calls.append("# TYPE uiautomator_rpc_calls_total counter\n");
+        errors.append("# HELP uiautomator_rpc_errors_total JSON-RPC calls that threw, by method.\n");
+        errors.append("# TYPE uiautomator_rpc_errors_total counter\n");
+        histogram.append("# HELP uiautomator_rpc_duration_seconds JSON-RPC call latency by method.\n");
+        histogram.append("# TYPE uiautomator_rpc_duration_seconds histogram\n");
+        quantiles.append("# HELP uiautomator_rpc_duration_quantile_seconds JSON-RPC call latency quantiles estimated from the histogram.\n");
+        quantiles.append("# TYPE uiautomator_rpc_duration_quantile_seconds gauge\n");
+        for (Map.Entry<String, MethodStats> entry : sorted.entrySet()) {
+            String label = "method=\"" + entry.getKey() + "\"";
+            MethodStats stats = entry.getValue();
+            long[] counts = new long[stats.buckets.length()];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = stats.buckets.get(i);
+                count += counts[i];
+            }
+            calls.append("uiautomator_rpc_calls_total{").append(label).append("} ").append(stats.calls.get()).append('\n');
+            errors.append("uiautomator_rpc_errors_total{").append(label).append("} ").append(stats.errors.get()).append('\n');
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf";
+                histogram.append("uiautomator_rpc_duration_seconds_bucket{").append(label)
+                        .append(",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+            }
+            histogram.append("uiautomator_rpc_duration_seconds_sum{").append(label).append("} ")
+                    .append(format(stats.totalNanos.get() / 1e9)).append('\n');
+            histogram.append("uiautomator_rpc_duration_seconds_count{").append(label).append("} ").append(count).append('\n');
+            for (double q : QUANTILES) {
+                quantiles.append("uiautomator_rpc_duration_quantile_seconds{").append(label)
+                        .append(",quantile=\"").append(format(q)).append("\"} ")
+                        .append(format(stats.quantile(q, counts, count))).append('\n');
+            }
+        }
+        calls.append(errors).append(histogram).append(quantiles);
+        for (Collector collector : collectors)
+            collector.collect(calls);
+        return calls.toString();
+    }
+
+    private static String format(double value) {
+        return String.valueOf(value);
+    }
+}
@@ -30,7 +30,7 @@ import android.support.test.wqhyy.UiDevice;
 import android.support.test.wqhyy.UiObject2;
 import android.support.test.wqhyy.UiSelector;
 
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 public class Selector {
     private String _text;
@@ -91,7 +91,14 @@ public class Selector {
 
     private UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
 
+    /**
+     * @return the UiSelector for this selector, shared by every equal selector
+     */
     public UiSelector toUiSelector() {
+        return SelectorPlan.of(this).getUiSelector();
+    }
+
+    UiSelector buildUiSelector() {
         UiSelector s = new UiSelector();
         if ((getMask() & Selector.MASK_CHECKABLE) > 0 && android.os.Build.VERSION.SDK_INT >= 18)
             s = s.checkable(this.isCheckable());
@@ -146,15 +153,22 @@ public class Selector {
 
         for (int i = 0; i < this.getChildOrSibling().length && i < this.getChildOrSiblingSelector().length; i++) {
             if (this.getChildOrSibling()[i].toLowerCase().equals("child"))
-                s = s.childSelector(getChildOrSiblingSelector()[i].toUiSelector());
+                s = s.childSelector(getChildOrSiblingSelector()[i].buildUiSelector());
             else if (this.getChildOrSibling()[i].toLowerCase().equals("sibling"))
-                s = s.fromParent((getChildOrSiblingSelector()[i].toUiSelector()));
+                s = s.fromParent((getChildOrSiblingSelector()[i].buildUiSelector()));
         }
 
         return s;
     }
 
+    /**
+     * @return the BySelector for this selector, shared by every equal selector, or null
+     */
     public BySelector toBySelector() {
+        return SelectorPlan.of(this).getBySelector();
+    }
+
+    BySelector buildBySelector() {
         BySelector s = null;
         if ((getMask() & Selector.MASK_CHECKABLE) > 0 && android.os.Build.VERSION.SDK_INT >= 18)
             s = By.checkable(this.isCheckable());
@@ -172,9 +186,9 @@ public class Selector {
         }
         if ((getMask() & Selector.MASK_CLASSNAMEMATCHES) > 0) {
             if (s == null)
-                s = By.clazz(Pattern.compile(getClassNameMatches()));
+                s = By.clazz(UiSelector.compilePattern(getClassNameMatches()));
             else
-                s = s.clazz(Pattern.compile(getClassNameMatches()));
+                s = s.clazz(UiSelector.compilePattern(getClassNameMatches()));
         }
         if ((getMask() & Selector.MASK_CLICKABLE) > 0) {
             if (s == null)
@@ -196,9 +210,9 @@ public class Selector {
         }
         if ((getMask() & Selector.MASK_DESCRIPTIONMATCHES) > 0) {
             if (s == null)
-                s = By.desc(Pattern.compile(getDescriptionMatches()));
+                s = By.desc(UiSelector.compilePattern(getDescriptionMatches()));
             else
-                s = s.desc(Pattern.compile(getDescriptionMatches()));
+                s = s.desc(UiSelector.compilePattern(getDescriptionMatches()));
         }
         if ((getMask() & Selector.MASK_DESCRIPTIONSTARTSWITH) > 0) {
             if (s == null)
@@ -238,9 +252,9 @@ public class Selector {
         }
         if ((getMask() & Selector.MASK_PACKAGENAMEMATCHES) > 0) {
             if (s == null)
-                s = By.pkg(Pattern.compile(getPackageNameMatches()));
+                s = By.pkg(UiSelector.compilePattern(getPackageNameMatches()));
             else
-                s = s.pkg(Pattern.compile(getPackageNameMatches()));
+                s = s.pkg(UiSelector.compilePattern(getPackageNameMatches()));
         }
         if ((getMask() & Selector.MASK_RESOURCEID) > 0) {
             if (s == null)
@@ -250,9 +264,9 @@ public class Selector {
         }
         if ((getMask() & Selector.MASK_RESOURCEIDMATCHES) > 0) {
             if (s == null)
-                s = By.res(Pattern.compile(getResourceIdMatches()));
+                s = By.res(UiSelector.compilePattern(getResourceIdMatches()));
             else
-                s = s.res(Pattern.compile(getResourceIdMatches()));
+                s = s.res(UiSelector.compilePattern(getResourceIdMatches()));
         }
         if ((getMask() & Selector.MASK_SCROLLABLE) > 0) {
             if (s == null)
@@ -286,9 +300,9 @@ public class Selector {
         }
         if ((getMask() & Selector.MASK_TEXTMATCHES) > 0) {
             if (s == null)
-                s = By.text(Pattern.compile(getTextMatches()));
+                s = By.text(UiSelector.compilePattern(getTextMatches()));
             else
-                s = s.text(Pattern.compile(getTextMatches()));
+                s = s.text(UiSelector.compilePattern(getTextMatches()));
         }
 
         return s;
@@ -321,19 +335,44 @@ public class Selector {
         return this.getChildOrSiblingSelector()[this.getChildOrSiblingSelector().length - 1];
     }
 
-    public UiSelector toUiSelector(int instance) {
-        Selector sel = this.deepSelector();
-        // remember last value
-        int oldInstance = sel.getInstance();
-        long oldMask = sel.getMask();
-
-        sel.setMask(sel.getMask() | Selector.MASK_INSTANCE);
-        sel.setInstance(instance);
-        UiSelector uiSelector = this.toUiSelector();
-        // recover last value
-        sel.setInstance(oldInstance);
-        sel.setMask(oldMask);
-        return uiSelector;
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Selector))
+            return false;
+        Selector that = (Selector) o;
+        return _mask == that._mask && _index == that._index && _instance == that._instance
+                && flags() == that.flags()
+                && same(_text, that._text) && same(_textContains, that._textContains)
+                && same(_textMatches, that._textMatches) && same(_textStartsWith, that._textStartsWith)
+                && same(_className, that._className) && same(_classNameMatches, that._classNameMatches)
+                && same(_description, that._description) && same(_descriptionContains, that._descriptionContains)
+                && same(_descriptionMatches, that._descriptionMatches) && same(_descriptionStartsWith, that._descriptionStartsWith)
+                && same(_packageName, that._packageName) && same(_packageNameMatches, that._packageNameMatches)
+                && same(_resourceId, that._resourceId) && same(_resourceIdMatches, that._resourceIdMatches)
+                && Arrays.equals(_childOrSibling, that._childOrSibling)
+                && Arrays.equals(_childOrSiblingSelector, that._childOrSiblingSelector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{_mask, _index, _instance, flags(),
+                _text, _textContains, _textMatches, _textStartsWith,
+                _className, _classNameMatches,
+                _description, _descriptionContains, _descriptionMatches, _descriptionStartsWith,
+                _packageName, _packageNameMatches, _resourceId, _resourceIdMatches,
+                Arrays.hashCode(_childOrSibling), Arrays.hashCode(_childOrSiblingSelector)});
+    }
+
+    private int flags() {
+        return (_checkable ? 0x001 : 0) | (_checked ? 0x002 : 0) | (_clickable ? 0x004 : 0)
+                | (_longClickable ? 0x008 : 0) | (_scrollable ? 0x010 : 0) | (_enabled ? 0x020 : 0)
+                | (_focusable ? 0x040 : 0) | (_focused ? 0x080 : 0) | (_selected ? 0x100 : 0);
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
     }
 
     public String getText() {
@@ -0,0 +1,88 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.BySelector;
+import android.support.test.wqhyy.UiSelector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What a {@link Selector} compiles to: its UiSelector, its BySelector and the matcher used on
+ * tree snapshots. Plans are cached by selector value, so repeated RPCs with the same selector
+ * skip the conversion; regular expressions are compiled through the cache of
+ * {@link UiSelector#compilePattern(String)}. Each part is built on first use.
+ */
+public class SelectorPlan {
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<Selector, SelectorPlan> plans = new LinkedHashMap<Selector, SelectorPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Selector, SelectorPlan> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final Selector selector;
+    private UiSelector uiSelector;
+    private BySelector bySelector;
+    private boolean bySelectorBuilt = false;
+    private TreeSnapshot.Level[] levels;
+
+    private SelectorPlan(Selector selector) {
+        this.selector = selector;
+    }
+
+    public static SelectorPlan of(Selector selector) {
+        synchronized (plans) {
+            SelectorPlan plan = plans.get(selector);
+            if (plan == null) {
+                plan = new SelectorPlan(selector);
+                plans.put(selector, plan);
+            }
+            return plan;
+        }
+    }
+
+    public synchronized UiSelector getUiSelector() {
+        if (uiSelector == null)
+            uiSelector = selector.buildUiSelector();
+        return uiSelector;
+    }
+
+    public synchronized BySelector getBySelector() {
+        if (!bySelectorBuilt) {
+            bySelector = selector.buildBySelector();
+            bySelectorBuilt = true;
+        }
+        return bySelector;
+    }
+
+    synchronized TreeSnapshot.Level[] getLevels() {
+        if (levels == null)
+            levels = TreeSnapshot.Level.compile(selector);
+        return levels;
+    }
+}
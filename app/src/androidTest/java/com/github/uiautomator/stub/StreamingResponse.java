@@ -0,0 +1,282 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A response whose body is produced while it is being sent.
+ *
+ * Subclasses write the body straight to the connection in {@link #writeBody(OutputStream)},
+ * so no copy of the whole payload is kept in memory. The headers are held back until the body
+ * passes {@link #COMPRESSION_THRESHOLD} bytes: a shorter body is sent as is with a
+ * Content-Length, a longer one is chunked and compressed with gzip or deflate if the client
+ * accepts it.
+ */
+public abstract class StreamingResponse extends NanoHTTPD.Response {
+    // Below about one TCP segment compression saves nothing worth its CPU time.
+    public static final int COMPRESSION_THRESHOLD = 1400;
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+    private NanoHTTPD.Method requestMethod;
+    private boolean keepAlive = true;
+    private String contentEncoding = null;
+
+    public StreamingResponse(IStatus status, String mimeType) {
+        super(status, mimeType, null, -1);
+    }
+
+    /**
+     * A response for a body that is already in memory; it still gets the size based encoding.
+     */
+    public static StreamingResponse fromBytes(IStatus status, String mimeType, final byte[] body) {
+        return new StreamingResponse(status, mimeType) {
+            @Override
+            protected void writeBody(OutputStream output) throws IOException {
+                output.write(body);
+            }
+        };
+    }
+
+    protected abstract void writeBody(OutputStream output) throws IOException;
+
+    /**
+     * Picks the content encoding from the request's Accept-Encoding header, gzip before deflate.
+     */
+    public void setAcceptEncoding(String acceptEncoding) {
+        contentEncoding = null;
+        if (acceptEncoding == null)
+            return;
+        for (String coding : acceptEncoding.toLowerCase(Locale.US).split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?"))
+                continue;
+            String name = parts[0].trim();
+            if ("gzip".equals(name)) {
+                contentEncoding = name;
+                return;
+            } else if ("deflate".equals(name)) {
+                contentEncoding = name;
+            }
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    @Override
+    public void setRequestMethod(NanoHTTPD.Method requestMethod) {
+        super.setRequestMethod(requestMethod);
+        this.requestMethod = requestMethod;
+    }
+
+    @Override
+    public void setKeepAlive(boolean useKeepAlive) {
+        super.setKeepAlive(useKeepAlive);
+        this.keepAlive = useKeepAlive;
+    }
+
+    @Override
+    protected void send(OutputStream outputStream) {
+        try {
+            // Headers, body chunks and the terminating chunk are coalesced, so a small response
+            // leaves in a single segment and pipelined requests are answered without delay.
+            BufferedOutputStream buffered = new BufferedOutputStream(outputStream, CHUNK_SIZE + 512);
+            if (NanoHTTPD.Method.HEAD == requestMethod) {
+                writeHeaders(buffered, null, -1);
+            } else {
+                DeferredBody body = new DeferredBody(buffered);
+                writeBody(body);
+                body.finish();
+            }
+            buffered.flush();
+        } catch (IOException e) {
+            Log.e("Could not send streaming response: " + e.getMessage());
+            // The body may be incomplete, so the connection cannot be reused.
+            closeConnection(true);
+        }
+    }
+
+    /**
+     * @param contentLength the body length, or -1 for a chunked body
+     */
+    private void writeHeaders(OutputStream out, String encoding, long contentLength) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(getStatus().getDescription()).append(" \r\n");
+        if (getMimeType() != null)
+            sb.append("Content-Type: ").append(getMimeType()).append("\r\n");
+        SimpleDateFormat gmtFormat = new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        gmtFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        sb.append("Date: ").append(gmtFormat.format(new Date())).append("\r\n");
+        for (Map.Entry<String, String> entry : headers.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+        sb.append("Connection: ").append(keepAlive && !isCloseConnection() ? "keep-alive" : "close").append("\r\n");
+        if (contentLength >= 0)
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        else
+            sb.append("Transfer-Encoding: chunked\r\n");
+        if (encoding != null)
+            sb.append("Content-Encoding: ").append(encoding).append("\r\n");
+        if (contentEncoding != null)
+            sb.append("Vary: Accept-Encoding\r\n");
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes("UTF-8"));
+    }
+
+    /**
+     * Buffers the first {@link #COMPRESSION_THRESHOLD} bytes of the body, then commits to
+     * either a plain fixed length response or a chunked, possibly compressed one.
+     */
+    private class DeferredBody extends OutputStream {
+        private final OutputStream connection;
+        private final byte[] head = new byte[COMPRESSION_THRESHOLD];
+        private int count = 0;
+        private OutputStream body = null;
+
+        DeferredBody(OutputStream connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (body == null && count + len <= head.length) {
+                System.arraycopy(b, off, head, count, len);
+                count += len;
+                return;
+            }
+            if (body == null)
+                start();
+            body.write(b, off, len);
+        }
+
+        // Flushes from the body writer do not commit the headers; only size does.
+        @Override
+        public void flush() throws IOException {
+            if (body != null)
+                body.flush();
+        }
+
+        // Body writers may close their stream; the response is completed by finish().
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void start() throws IOException {
+            writeHeaders(connection, contentEncoding, -1);
+            OutputStream chunked = new ChunkedOutputStream(connection);
+            if ("gzip".equals(contentEncoding))
+                body = new GZIPOutputStream(chunked, CHUNK_SIZE);
+            else if ("deflate".equals(contentEncoding))
+                body = new DeflaterOutputStream(chunked);
+            else
+                body = chunked;
+            body.write(head, 0, count);
+        }
+
+        void finish() throws IOException {
+            if (body == null) {
+                writeHeaders(connection, null, count);
+                connection.write(head, 0, count);
+            } else {
+                body.close();
+            }
+        }
+    }
+
+    /**
+     * Writes each flush as one HTTP chunk and the terminating chunk on close. Only close
+     * flushes the connection.
+     */
+    private static class ChunkedOutputStream extends FilterOutputStream {
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count = 0;
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length)
+                writeChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length)
+                    writeChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeChunk();
+            out.write("0\r\n\r\n".getBytes());
+            out.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0)
+                return;
+            out.write(String.format("%x\r\n", count).getBytes());
+            out.write(buffer, 0, count);
+            out.write("\r\n".getBytes());
+            count = 0;
+        }
+    }
+}
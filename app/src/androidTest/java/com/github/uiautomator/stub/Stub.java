@@ -38,7 +38,6 @@ import android.support.test.wqhyy.Until;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.googlecode.jsonrpc4j.ErrorResolver;
-import com.googlecode.jsonrpc4j.JsonRpcServer;
 
 import org.junit.After;
 import org.junit.Before;
@@ -69,8 +68,20 @@ public class Stub {
     @Before
     public void setUp() throws Exception {
         launchService();
-        JsonRpcServer jrs = new JsonRpcServer(new ObjectMapper(), new AutomatorServiceImpl(), AutomatorService.class);
+        AutomatorServiceImpl service = new AutomatorServiceImpl();
+        server.getMetrics().register(service.getUiObjectRegistry());
+        server.getMetrics().register(service.getTreeSnapshotCache());
+        server.getMetrics().register(new TraversalStats());
+        server.route("/jsonrpc/0", newJsonRpcFormat(JsonRpcFormat.JSON, service));
+        server.route("/jsonrpc/0", newJsonRpcFormat(JsonRpcFormat.CBOR, service));
+        server.start(AutomatorHttpServer.KEEP_ALIVE_TIMEOUT);
+    }
+
+    private JsonRpcFormat newJsonRpcFormat(String mimeType, AutomatorService service) {
+        ObjectMapper mapper = JsonRpcFormat.newObjectMapper(mimeType);
+        JsonRpcNodeServer jrs = new JsonRpcNodeServer(mapper, service, AutomatorService.class);
         jrs.setShouldLogInvocationErrors(true);
+        jrs.setInvocationListener(server.getMetrics());
         jrs.setErrorResolver(new ErrorResolver() {
             @Override
             public JsonError resolveError(Throwable throwable, Method method, List<JsonNode> list) {
@@ -84,8 +95,7 @@ public class Stub {
                 return new JsonError(CUSTOM_ERROR_CODE, throwable.getClass().getName(), data);
             }
         });
-        server.route("/jsonrpc/0", jrs);
-        server.start();
+        return new JsonRpcFormat(mimeType, mapper, jrs);
     }
 
     private void launchPackage(String packageName) {
@@ -0,0 +1,49 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.NodeTraversal;
+
+/**
+ * Reports the node fetches of hierarchy walks, split by the kind of walk. A fetch is at most
+ * one binder call; with prefetching most are answered from the accessibility cache, so the
+ * ratio of fetches to traversals shows how much a walk costs.
+ */
+public class TraversalStats implements RpcMetrics.Collector {
+    @Override
+    public void collect(StringBuilder out) {
+        out.append("# TYPE uiautomator_node_traversals_total counter\n");
+        for (NodeTraversal kind : NodeTraversal.values())
+            collectSample(out, "uiautomator_node_traversals_total", kind.getName(), kind.getTraversals());
+        out.append("# TYPE uiautomator_node_fetches_total counter\n");
+        for (NodeTraversal kind : NodeTraversal.values())
+            collectSample(out, "uiautomator_node_fetches_total", kind.getName(), kind.getFetches());
+        out.append("# TYPE uiautomator_node_prefetch gauge\n");
+        out.append("uiautomator_node_prefetch ").append(NodeTraversal.isPrefetching() ? 1 : 0).append('\n');
+    }
+
+    private static void collectSample(StringBuilder out, String name, String kind, long value) {
+        out.append(name).append("{kind=\"").append(kind).append("\"} ").append(value).append('\n');
+    }
+}
@@ -0,0 +1,636 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.os.Build;
+import android.support.test.wqhyy.NodeTraversal;
+import android.support.test.wqhyy.UiSelector;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A copy of the visible hierarchy of the active window, captured in one walk into pre-order
+ * attribute arrays with hash indexes by resource-id, text, content-desc and class, so that
+ * repeated queries on a static screen need no binder calls to the target app.
+ *
+ * Selectors are matched with the scope and instance rules of the live UiSelector search:
+ * element i of {@link #findAll(Selector)} is the node that instance(i) resolves to.
+ */
+public class TreeSnapshot {
+    private static final int CHECKABLE = 0x001;
+    private static final int CHECKED = 0x002;
+    private static final int CLICKABLE = 0x004;
+    private static final int LONG_CLICKABLE = 0x008;
+    private static final int SCROLLABLE = 0x010;
+    private static final int ENABLED = 0x020;
+    private static final int FOCUSABLE = 0x040;
+    private static final int FOCUSED = 0x080;
+    private static final int SELECTED = 0x100;
+
+    private static final int[] NONE = new int[0];
+
+    private final int displayWidth;
+    private final int displayHeight;
+    // window of the captured root, -1 where the platform does not tell
+    private int windowId = -1;
+
+    private int size = 0;
+    // index of the parent, -1 for the root
+    private int[] parent;
+    // pre-order index just past the subtree, so the children of i are i + 1, end[i + 1], ...
+    private int[] end;
+    // position among the parent's children, invisible ones included
+    private int[] index;
+    private int[] childCount;
+    private int[] flags;
+    // left, top, right, bottom
+    private int[] bounds;
+    private int[] visibleBounds;
+    private String[] text;
+    private String[] description;
+    private String[] className;
+    private String[] resourceId;
+    private String[] packageName;
+    // kept so that change events can be mapped back to their position
+    private AccessibilityNodeInfo[] nodes;
+
+    private Map<AccessibilityNodeInfo, Integer> byNode;
+    private Map<String, int[]> byResourceId;
+    private Map<String, int[]> byText;
+    private Map<String, int[]> byDescription;
+    private Map<String, int[]> byClassName;
+
+    private TreeSnapshot(int displayWidth, int displayHeight, int capacity) {
+        this.displayWidth = displayWidth;
+        this.displayHeight = displayHeight;
+        parent = new int[capacity];
+        end = new int[capacity];
+        index = new int[capacity];
+        childCount = new int[capacity];
+        flags = new int[capacity];
+        bounds = new int[capacity * 4];
+        visibleBounds = new int[capacity * 4];
+        text = new String[capacity];
+        description = new String[capacity];
+        className = new String[capacity];
+        resourceId = new String[capacity];
+        packageName = new String[capacity];
+        nodes = new AccessibilityNodeInfo[capacity];
+    }
+
+    /**
+     * Captures the subtree of root, skipping children that are not visible to the user just as
+     * the UiSelector search does.
+     */
+    public static TreeSnapshot capture(AccessibilityNodeInfo root, int displayWidth, int displayHeight) {
+        NodeTraversal.SNAPSHOT.begin();
+        TreeSnapshot snapshot = new TreeSnapshot(displayWidth, displayHeight, 256);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            snapshot.windowId = root.getWindowId();
+        snapshot.add(root, -1, 0, null);
+        snapshot.buildIndexes();
+        return snapshot;
+    }
+
+    /**
+     * @return the id of the window the snapshot was captured from, or -1 if unknown
+     */
+    public int getWindowId() {
+        return windowId;
+    }
+
+    /**
+     * @return the position of a node in this snapshot, or -1 if it was not captured
+     */
+    public int indexOf(AccessibilityNodeInfo node) {
+        Integer i = byNode.get(node);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * @return a copy with the subtree at position i captured again from source, or removed if
+     * source is no longer visible; the rest of the tree is copied without binder calls
+     */
+    public TreeSnapshot withSubtree(int i, AccessibilityNodeInfo source) {
+        NodeTraversal.SNAPSHOT.begin();
+        TreeSnapshot block = new TreeSnapshot(displayWidth, displayHeight, 16);
+        if (i == 0 || source.isVisibleToUser())
+            block.add(source, -1, index[i], scrollClip(i));
+        return splice(i, block);
+    }
+
+    /**
+     * @return a copy with the attributes of the node at position i read again from source,
+     * for changes that do not touch its children
+     */
+    public TreeSnapshot withNode(int i, AccessibilityNodeInfo source) {
+        TreeSnapshot copy = new TreeSnapshot(displayWidth, displayHeight, size);
+        copy.copyFrom(this, 0, 0, size);
+        copy.size = size;
+        copy.windowId = windowId;
+        copy.fill(i, source, scrollClip(i));
+        copy.buildIndexes();
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the node the selector resolves to, honouring its instance, or -1
+     */
+    public int find(Selector selector) {
+        Level[] levels = SelectorPlan.of(selector).getLevels();
+        Level leaf = levels[levels.length - 1];
+        int instance = (leaf.selector.getMask() & Selector.MASK_INSTANCE) > 0 ? leaf.selector.getInstance() : 0;
+        int[] nodes = findAll(levels);
+        return instance >= 0 && instance < nodes.length ? nodes[instance] : -1;
+    }
+
+    /**
+     * @return every node the selector can resolve to, in instance order; the instance of the
+     * last selector in the chain is ignored
+     */
+    public int[] findAll(Selector selector) {
+        return findAll(SelectorPlan.of(selector).getLevels());
+    }
+
+    public int count(Selector selector) {
+        Level[] levels = SelectorPlan.of(selector).getLevels();
+        if ((levels[levels.length - 1].selector.getMask() & Selector.MASK_INSTANCE) > 0)
+            return find(selector) >= 0 ? 1 : 0;
+        return findAll(levels).length;
+    }
+
+    public String getText(int node) {
+        return text[node] == null ? "" : text[node];
+    }
+
+    public ObjInfo getObjInfo(int node) {
+        ObjInfo info = new ObjInfo();
+        info.setBounds(toRect(bounds, node));
+        info.setVisibleBounds(toRect(visibleBounds, node));
+        info.setChildCount(childCount[node]);
+        info.setClassName(className[node] == null ? "" : className[node]);
+        info.setContentDescription(description[node] == null ? "" : description[node]);
+        info.setPackageName(packageName[node] == null ? "" : packageName[node]);
+        info.setText(getText(node));
+        info.setResourceName(resourceId[node]);
+        info.setCheckable(has(node, CHECKABLE));
+        info.setChecked(has(node, CHECKED));
+        info.setClickable(has(node, CLICKABLE));
+        info.setLongClickable(has(node, LONG_CLICKABLE));
+        info.setScrollable(has(node, SCROLLABLE));
+        info.setEnabled(has(node, ENABLED));
+        info.setFocusable(has(node, FOCUSABLE));
+        info.setFocused(has(node, FOCUSED));
+        info.setSelected(has(node, SELECTED));
+        return info;
+    }
+
+    private boolean has(int node, int flag) {
+        return (flags[node] & flag) != 0;
+    }
+
+    private static Rect toRect(int[] rects, int node) {
+        return Rect.from(new android.graphics.Rect(rects[node * 4], rects[node * 4 + 1], rects[node * 4 + 2], rects[node * 4 + 3]));
+    }
+
+    private int[] findAll(Level[] levels) {
+        if (levels.length == 1) {
+            // a single scope over the whole tree, so instance order is pre-order
+            int[] candidates = levels[0].candidates(this);
+            if (candidates != null) {
+                int[] matched = new int[candidates.length];
+                int count = 0;
+                for (int node : candidates) {
+                    if (levels[0].matches(this, node))
+                        matched[count++] = node;
+                }
+                return Arrays.copyOf(matched, count);
+            }
+        }
+        List<List<Integer>> scopes = new ArrayList<List<Integer>>();
+        List<Integer> scope = null;
+        if (levels.length == 1) {
+            scope = new ArrayList<Integer>();
+            scopes.add(scope);
+        }
+        if (size > 0)
+            walk(levels, 0, new int[1], 0, scope, scopes);
+
+        List<Integer> result = new ArrayList<Integer>();
+        for (List<Integer> matches : scopes) {
+            while (result.size() < matches.size()) {
+                result.add(matches.get(result.size()));
+            }
+        }
+        int[] nodes = new int[result.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = result.get(i);
+        }
+        return nodes;
+    }
+
+    // Mirrors QueryController.findAllRegularRecursive: each level gets a fresh instance
+    // counter whenever the previous level matches, and leaf matches are recorded per scope.
+    private void walk(Level[] levels, int level, int[] counter, int node, List<Integer> scope, List<List<Integer>> scopes) {
+        int from = node;
+        if (levels[level].matches(this, node) && (level == levels.length - 1 || levels[level].matchInstance(counter))) {
+            if (level == levels.length - 1) {
+                scope.add(node);
+            } else {
+                level++;
+                counter = new int[1];
+                if (levels[level].sibling) {
+                    from = parent[node];
+                    if (from < 0)
+                        return;
+                }
+                if (level == levels.length - 1) {
+                    scope = new ArrayList<Integer>();
+                    scopes.add(scope);
+                }
+            }
+        }
+        for (int child = from + 1; child < end[from]; child = end[child]) {
+            walk(levels, level, counter, child, scope, scopes);
+        }
+    }
+
+    private void add(AccessibilityNodeInfo node, int parentIndex, int childIndex, android.graphics.Rect scrollClip) {
+        int i = size++;
+        ensureCapacity(size);
+        parent[i] = parentIndex;
+        index[i] = childIndex;
+        fill(i, node, scrollClip);
+
+        if ((flags[i] & SCROLLABLE) != 0)
+            scrollClip = clip(bounds, i);
+        int count = childCount[i];
+        for (int c = 0; c < count; c++) {
+            AccessibilityNodeInfo child = NodeTraversal.SNAPSHOT.getChild(node, c);
+            if (child == null || !child.isVisibleToUser())
+                continue;
+            add(child, i, c, scrollClip);
+        }
+        end[i] = size;
+    }
+
+    private void fill(int i, AccessibilityNodeInfo node, android.graphics.Rect scrollClip) {
+        nodes[i] = node;
+        childCount[i] = node.getChildCount();
+        flags[i] = (node.isCheckable() ? CHECKABLE : 0)
+                | (node.isChecked() ? CHECKED : 0)
+                | (node.isClickable() ? CLICKABLE : 0)
+                | (node.isLongClickable() ? LONG_CLICKABLE : 0)
+                | (node.isScrollable() ? SCROLLABLE : 0)
+                | (node.isEnabled() ? ENABLED : 0)
+                | (node.isFocusable() ? FOCUSABLE : 0)
+                | (node.isFocused() ? FOCUSED : 0)
+                | (node.isSelected() ? SELECTED : 0);
+        text[i] = toString(node.getText());
+        description[i] = toString(node.getContentDescription());
+        className[i] = toString(node.getClassName());
+        resourceId[i] = node.getViewIdResourceName();
+        packageName[i] = toString(node.getPackageName());
+
+        android.graphics.Rect rect = new android.graphics.Rect();
+        node.getBoundsInScreen(rect);
+        setRect(bounds, i, rect);
+        // clipped to the display and to the nearest scrollable ancestor, as UiObject reports it
+        android.graphics.Rect visible = new android.graphics.Rect(rect);
+        visible.intersect(0, 0, displayWidth, displayHeight);
+        if (scrollClip != null)
+            visible.intersect(scrollClip);
+        setRect(visibleBounds, i, visible);
+    }
+
+    // bounds of node i clipped to the display
+    private android.graphics.Rect clip(int[] rects, int i) {
+        android.graphics.Rect rect = new android.graphics.Rect(rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3]);
+        rect.intersect(0, 0, displayWidth, displayHeight);
+        return rect;
+    }
+
+    // the clip that the nearest scrollable ancestor of node i applies, or null
+    private android.graphics.Rect scrollClip(int i) {
+        for (int p = parent[i]; p >= 0; p = parent[p]) {
+            if ((flags[p] & SCROLLABLE) != 0)
+                return clip(bounds, p);
+        }
+        return null;
+    }
+
+    // Replaces the subtree at position at with block, shifting the positions after it.
+    private TreeSnapshot splice(int at, TreeSnapshot block) {
+        int oldEnd = end[at];
+        int delta = block.size - (oldEnd - at);
+        TreeSnapshot s = new TreeSnapshot(displayWidth, displayHeight, Math.max(size + delta, 1));
+        s.copyFrom(this, 0, 0, at);
+        s.copyFrom(block, 0, at, block.size);
+        s.copyFrom(this, oldEnd, at + block.size, size - oldEnd);
+        s.size = size + delta;
+        s.windowId = windowId;
+        for (int k = 0; k < s.size; k++) {
+            if (k < at) {
+                // only ancestors of the replaced subtree reach past it
+                if (s.end[k] >= oldEnd)
+                    s.end[k] += delta;
+            } else if (k < at + block.size) {
+                s.parent[k] = k == at ? parent[at] : s.parent[k] + at;
+                s.end[k] += at;
+            } else {
+                if (s.parent[k] >= oldEnd)
+                    s.parent[k] += delta;
+                s.end[k] += delta;
+            }
+        }
+        s.buildIndexes();
+        return s;
+    }
+
+    private void copyFrom(TreeSnapshot from, int fromPos, int toPos, int length) {
+        System.arraycopy(from.parent, fromPos, parent, toPos, length);
+        System.arraycopy(from.end, fromPos, end, toPos, length);
+        System.arraycopy(from.index, fromPos, index, toPos, length);
+        System.arraycopy(from.childCount, fromPos, childCount, toPos, length);
+        System.arraycopy(from.flags, fromPos, flags, toPos, length);
+        System.arraycopy(from.bounds, fromPos * 4, bounds, toPos * 4, length * 4);
+        System.arraycopy(from.visibleBounds, fromPos * 4, visibleBounds, toPos * 4, length * 4);
+        System.arraycopy(from.text, fromPos, text, toPos, length);
+        System.arraycopy(from.description, fromPos, description, toPos, length);
+        System.arraycopy(from.className, fromPos, className, toPos, length);
+        System.arraycopy(from.resourceId, fromPos, resourceId, toPos, length);
+        System.arraycopy(from.packageName, fromPos, packageName, toPos, length);
+        System.arraycopy(from.nodes, fromPos, nodes, toPos, length);
+    }
+
+    private static void setRect(int[] rects, int i, android.graphics.Rect rect) {
+        rects[i * 4] = rect.left;
+        rects[i * 4 + 1] = rect.top;
+        rects[i * 4 + 2] = rect.right;
+        rects[i * 4 + 3] = rect.bottom;
+    }
+
+    private static String toString(CharSequence cs) {
+        return cs == null ? null : cs.toString();
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parent.length)
+            return;
+        int n = Math.max(capacity, parent.length * 2);
+        parent = Arrays.copyOf(parent, n);
+        end = Arrays.copyOf(end, n);
+        index = Arrays.copyOf(index, n);
+        childCount = Arrays.copyOf(childCount, n);
+        flags = Arrays.copyOf(flags, n);
+        bounds = Arrays.copyOf(bounds, n * 4);
+        visibleBounds = Arrays.copyOf(visibleBounds, n * 4);
+        text = Arrays.copyOf(text, n);
+        description = Arrays.copyOf(description, n);
+        className = Arrays.copyOf(className, n);
+        resourceId = Arrays.copyOf(resourceId, n);
+        packageName = Arrays.copyOf(packageName, n);
+        nodes = Arrays.copyOf(nodes, n);
+    }
+
+    private void buildIndexes() {
+        byNode = new HashMap<AccessibilityNodeInfo, Integer>(size * 2);
+        for (int i = 0; i < size; i++) {
+            byNode.put(nodes[i], i);
+        }
+        byResourceId = buildIndex(resourceId);
+        byText = buildIndex(text);
+        byDescription = buildIndex(description);
+        byClassName = buildIndex(className);
+    }
+
+    // node lists come out in pre-order, which findAll relies on
+    private Map<String, int[]> buildIndex(String[] values) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < size; i++) {
+            if (values[i] == null)
+                continue;
+            Integer count = counts.get(values[i]);
+            counts.put(values[i], count == null ? 1 : count + 1);
+        }
+        Map<String, int[]> result = new HashMap<String, int[]>(counts.size() * 2);
+        Map<String, Integer> filled = new HashMap<String, Integer>(counts.size() * 2);
+        for (int i = 0; i < size; i++) {
+            if (values[i] == null)
+                continue;
+            int[] nodes = result.get(values[i]);
+            if (nodes == null) {
+                nodes = new int[counts.get(values[i])];
+                result.put(values[i], nodes);
+                filled.put(values[i], 0);
+            }
+            int at = filled.get(values[i]);
+            nodes[at] = i;
+            filled.put(values[i], at + 1);
+        }
+        return result;
+    }
+
+    /**
+     * One step of a child/sibling chain, compiled for matching against snapshot arrays.
+     * Literal regular expressions become string comparisons, and the checks run cheapest and
+     * most selective first.
+     */
+    static class Level {
+        final Selector selector;
+        final boolean sibling;
+        final long mask;
+        final Regex textMatches;
+        final Regex classNameMatches;
+        final Regex descriptionMatches;
+        final Regex packageNameMatches;
+        final Regex resourceIdMatches;
+        final String textContains;
+        final String textStartsWith;
+        final String descriptionContains;
+        final String descriptionStartsWith;
+
+        Level(Selector selector, boolean sibling) {
+            this.selector = selector;
+            this.sibling = sibling;
+            this.mask = selector.getMask();
+            textMatches = regex(Selector.MASK_TEXTMATCHES, selector.getTextMatches());
+            classNameMatches = regex(Selector.MASK_CLASSNAMEMATCHES, selector.getClassNameMatches());
+            descriptionMatches = regex(Selector.MASK_DESCRIPTIONMATCHES, selector.getDescriptionMatches());
+            packageNameMatches = regex(Selector.MASK_PACKAGENAMEMATCHES, selector.getPackageNameMatches());
+            resourceIdMatches = regex(Selector.MASK_RESOURCEIDMATCHES, selector.getResourceIdMatches());
+            // UiSelector compares contains and startsWith case-insensitively
+            textContains = lower(Selector.MASK_TEXTCONTAINS, selector.getTextContains());
+            textStartsWith = lower(Selector.MASK_TEXTSTARTSWITH, selector.getTextStartsWith());
+            descriptionContains = lower(Selector.MASK_DESCRIPTIONCONTAINS, selector.getDescriptionContains());
+            descriptionStartsWith = lower(Selector.MASK_DESCRIPTIONSTARTSWITH, selector.getDescriptionStartsWith());
+        }
+
+        static Level[] compile(Selector selector) {
+            List<Level> levels = new ArrayList<Level>();
+            flatten(selector, false, levels);
+            return levels.toArray(new Level[levels.size()]);
+        }
+
+        // Selector.toUiSelector appends each child or sibling to the end of the chain built so far
+        private static void flatten(Selector selector, boolean sibling, List<Level> levels) {
+            levels.add(new Level(selector, sibling));
+            String[] relations = selector.getChildOrSibling();
+            Selector[] selectors = selector.getChildOrSiblingSelector();
+            for (int i = 0; i < relations.length && i < selectors.length; i++) {
+                if (relations[i].toLowerCase().equals("child"))
+                    flatten(selectors[i], false, levels);
+                else if (relations[i].toLowerCase().equals("sibling"))
+                    flatten(selectors[i], true, levels);
+            }
+        }
+
+        private Regex regex(long bit, String regex) {
+            return (mask & bit) > 0 ? new Regex(regex) : null;
+        }
+
+        private String lower(long bit, String value) {
+            return (mask & bit) > 0 ? value.toLowerCase() : null;
+        }
+
+        /**
+         * @return the only nodes that can match, from an index, or null to scan every node
+         */
+        int[] candidates(TreeSnapshot s) {
+            Map<String, int[]> index = null;
+            String key = null;
+            if ((mask & Selector.MASK_RESOURCEID) > 0) {
+                index = s.byResourceId;
+                key = selector.getResourceId();
+            } else if ((mask & Selector.MASK_TEXT) > 0) {
+                index = s.byText;
+                key = selector.getText();
+            } else if ((mask & Selector.MASK_DESCRIPTION) > 0) {
+                index = s.byDescription;
+                key = selector.getDescription();
+            } else if ((mask & Selector.MASK_CLASSNAME) > 0) {
+                index = s.byClassName;
+                key = selector.getClassName();
+            }
+            if (index == null)
+                return null;
+            int[] nodes = index.get(key);
+            return nodes == null ? NONE : nodes;
+        }
+
+        boolean matchInstance(int[] counter) {
+            int instance = (mask & Selector.MASK_INSTANCE) > 0 ? selector.getInstance() : 0;
+            if (instance == counter[0])
+                return true;
+            if (instance > counter[0])
+                counter[0]++;
+            return false;
+        }
+
+        boolean matches(TreeSnapshot s, int node) {
+            if ((mask & Selector.MASK_RESOURCEID) > 0 && !isEqual(s.resourceId[node], selector.getResourceId()))
+                return false;
+            if ((mask & Selector.MASK_CLASSNAME) > 0 && !isEqual(s.className[node], selector.getClassName()))
+                return false;
+            if ((mask & Selector.MASK_PACKAGENAME) > 0 && !isEqual(s.packageName[node], selector.getPackageName()))
+                return false;
+            if ((mask & Selector.MASK_INDEX) > 0 && s.index[node] != selector.getIndex())
+                return false;
+            if ((mask & Selector.MASK_CHECKABLE) > 0 && s.has(node, CHECKABLE) != selector.isCheckable())
+                return false;
+            if ((mask & Selector.MASK_CHECKED) > 0 && s.has(node, CHECKED) != selector.isChecked())
+                return false;
+            if ((mask & Selector.MASK_CLICKABLE) > 0 && s.has(node, CLICKABLE) != selector.isClickable())
+                return false;
+            if ((mask & Selector.MASK_LONGCLICKABLE) > 0 && s.has(node, LONG_CLICKABLE) != selector.isLongClickable())
+                return false;
+            if ((mask & Selector.MASK_SCROLLABLE) > 0 && s.has(node, SCROLLABLE) != selector.isScrollable())
+                return false;
+            if ((mask & Selector.MASK_ENABLED) > 0 && s.has(node, ENABLED) != selector.isEnabled())
+                return false;
+            if ((mask & Selector.MASK_FOCUSABLE) > 0 && s.has(node, FOCUSABLE) != selector.isFocusable())
+                return false;
+            if ((mask & Selector.MASK_FOCUSED) > 0 && s.has(node, FOCUSED) != selector.isFocused())
+                return false;
+            if ((mask & Selector.MASK_SELECTED) > 0 && s.has(node, SELECTED) != selector.isSelected())
+                return false;
+            if ((mask & Selector.MASK_TEXT) > 0 && !isEqual(s.text[node], selector.getText()))
+                return false;
+            if ((mask & Selector.MASK_DESCRIPTION) > 0 && !isEqual(s.description[node], selector.getDescription()))
+                return false;
+            if (textStartsWith != null && (s.text[node] == null || !s.text[node].toLowerCase().startsWith(textStartsWith)))
+                return false;
+            if (textContains != null && (s.text[node] == null || !s.text[node].toLowerCase().contains(textContains)))
+                return false;
+            if (descriptionStartsWith != null && (s.description[node] == null || !s.description[node].toLowerCase().startsWith(descriptionStartsWith)))
+                return false;
+            if (descriptionContains != null && (s.description[node] == null || !s.description[node].toLowerCase().contains(descriptionContains)))
+                return false;
+            if (resourceIdMatches != null && !resourceIdMatches.matches(s.resourceId[node]))
+                return false;
+            if (classNameMatches != null && !classNameMatches.matches(s.className[node]))
+                return false;
+            if (packageNameMatches != null && !packageNameMatches.matches(s.packageName[node]))
+                return false;
+            if (textMatches != null && !textMatches.matches(s.text[node]))
+                return false;
+            if (descriptionMatches != null && !descriptionMatches.matches(s.description[node]))
+                return false;
+            return true;
+        }
+
+        private static boolean isEqual(String value, String expected) {
+            return value != null && value.equals(expected);
+        }
+    }
+
+    /**
+     * A whole-value regular expression; one without metacharacters is compared as a string.
+     */
+    static class Regex {
+        private final String literal;
+        private final Pattern pattern;
+
+        Regex(String regex) {
+            literal = UiSelector.isLiteral(regex) ? regex : null;
+            pattern = literal == null ? UiSelector.compilePattern(regex) : null;
+        }
+
+        boolean matches(String value) {
+            if (value == null)
+                return false;
+            return literal != null ? literal.equals(value) : pattern.matcher(value).matches();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.app.UiAutomation;
+import android.os.Build;
+import android.support.test.wqhyy.UiDevice;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the {@link TreeSnapshot} of the active window while snapshot mode is on. The snapshot is
+ * captured on first use. Content changes and scrolls are queued and applied on the next use by
+ * capturing again only the subtree (or, for text and description changes, only the node) that
+ * the event names; other events that may change the tree drop the snapshot. Changes that arrive
+ * while a capture or update runs are queued for the next use as well, so a screen that keeps
+ * changing still keeps its snapshot. Changes in other windows are ignored.
+ */
+public class TreeSnapshotCache implements AccessibilityEventListener.Subscriber, RpcMetrics.Collector {
+    private static final int UPDATING_EVENTS = AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+            | AccessibilityEvent.TYPE_VIEW_SCROLLED
+            | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED;
+    private static final int INVALIDATING_EVENTS = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+            | AccessibilityEvent.TYPE_WINDOWS_CHANGED
+            | AccessibilityEvent.TYPE_VIEW_SELECTED
+            | AccessibilityEvent.TYPE_VIEW_FOCUSED;
+    // past this many queued changes a full capture is cheaper
+    private static final int MAX_PENDING_CHANGES = 32;
+    private static final int NODE_CHANGE_TYPES = AccessibilityEvent.CONTENT_CHANGE_TYPE_TEXT
+            | AccessibilityEvent.CONTENT_CHANGE_TYPE_CONTENT_DESCRIPTION;
+
+    private final UiDevice device;
+    private final UiAutomation uiAutomation;
+    // serializes captures and updates; events only take the monitor of this cache
+    private final Object refreshLock = new Object();
+    // copies of content change events not yet applied to the snapshot
+    private List<AccessibilityEvent> pending = new ArrayList<AccessibilityEvent>();
+    private boolean enabled = false;
+    private TreeSnapshot snapshot;
+    // a capture or update is running, so changes must be queued for the snapshot it will produce
+    private boolean refreshing = false;
+    // bumped by every invalidation, so a capture that raced with an event is not kept
+    private long generation = 0;
+    private long hits = 0;
+    private long captures = 0;
+    private long invalidations = 0;
+    private long updates = 0;
+
+    public TreeSnapshotCache(UiDevice device, UiAutomation uiAutomation) {
+        this.device = device;
+        this.uiAutomation = uiAutomation;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        synchronized (this) {
+            if (this.enabled == enabled)
+                return;
+            this.enabled = enabled;
+            drop();
+        }
+        if (enabled)
+            AccessibilityEventListener.addSubscriber(this);
+        else
+            AccessibilityEventListener.removeSubscriber(this);
+    }
+
+    /**
+     * Waits for the screen to be idle first, like the live search does.
+     *
+     * @return the current snapshot, capturing or updating it if needed, or null when snapshot
+     * mode is off or the active window has no root
+     */
+    public TreeSnapshot get() {
+        if (!isEnabled())
+            return null;
+        // As before a live search: a change event still on its way would leave the snapshot stale
+        device.waitForIdle();
+        synchronized (refreshLock) {
+            TreeSnapshot current;
+            List<AccessibilityEvent> changes;
+            long startGeneration;
+            synchronized (this) {
+                if (!enabled)
+                    return null;
+                if (snapshot != null && pending.isEmpty()) {
+                    hits++;
+                    return snapshot;
+                }
+                current = snapshot;
+                changes = pending;
+                pending = new ArrayList<AccessibilityEvent>();
+                startGeneration = generation;
+                refreshing = true;
+            }
+            try {
+                TreeSnapshot updated = current != null ? apply(current, changes) : null;
+                for (AccessibilityEvent change : changes) {
+                    change.recycle();
+                }
+                boolean incremental = updated != null;
+                if (updated == null) {
+                    AccessibilityNodeInfo root = uiAutomation.getRootInActiveWindow();
+                    if (root == null)
+                        return null;
+                    updated = TreeSnapshot.capture(root, device.getDisplayWidth(), device.getDisplayHeight());
+                }
+                synchronized (this) {
+                    if (incremental)
+                        updates++;
+                    else
+                        captures++;
+                    // changes queued meanwhile are applied by the next get; only a drop discards it
+                    if (generation == startGeneration)
+                        snapshot = updated;
+                }
+                return updated;
+            } finally {
+                synchronized (this) {
+                    refreshing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the snapshot with the changes applied, or null if one of them needs a full capture
+     */
+    private TreeSnapshot apply(TreeSnapshot current, List<AccessibilityEvent> changes) {
+        for (AccessibilityEvent change : changes) {
+            // status bar, keyboard and other windows do not touch the captured tree
+            if (current.getWindowId() >= 0 && change.getWindowId() != current.getWindowId())
+                continue;
+            AccessibilityNodeInfo source = change.getSource();
+            if (source == null)
+                return null;
+            int i = current.indexOf(source);
+            if (i < 0 || !source.refresh())
+                return null;
+            int types = change.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                    && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT ? change.getContentChangeTypes() : 0;
+            if (change.getEventType() == AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+                    || (types != 0 && (types & ~NODE_CHANGE_TYPES) == 0))
+                current = current.withNode(i, source);
+            else
+                current = current.withSubtree(i, source);
+        }
+        return current;
+    }
+
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        int type = event.getEventType();
+        if ((type & (UPDATING_EVENTS | INVALIDATING_EVENTS)) == 0)
+            return;
+        synchronized (this) {
+            if (snapshot == null && !refreshing) {
+                // the next use captures from scratch anyway
+                return;
+            } else if ((type & INVALIDATING_EVENTS) != 0 || pending.size() >= MAX_PENDING_CHANGES) {
+                drop();
+                invalidations++;
+            } else {
+                pending.add(AccessibilityEvent.obtain(event));
+            }
+        }
+    }
+
+    // caller holds the monitor of this cache
+    private void drop() {
+        generation++;
+        snapshot = null;
+        for (AccessibilityEvent change : pending) {
+            change.recycle();
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void collect(StringBuilder out) {
+        long hits, captures, updates, invalidations;
+        synchronized (this) {
+            hits = this.hits;
+            captures = this.captures;
+            updates = this.updates;
+            invalidations = this.invalidations;
+        }
+        collectCounter(out, "hits", hits);
+        collectCounter(out, "captures", captures);
+        collectCounter(out, "updates", updates);
+        collectCounter(out, "invalidations", invalidations);
+    }
+
+    private static void collectCounter(StringBuilder out, String name, long value) {
+        out.append("# TYPE uiautomator_snapshot_").append(name).append("_total counter\n");
+        out.append("uiautomator_snapshot_").append(name).append("_total ").append(value).append('\n');
+    }
+}
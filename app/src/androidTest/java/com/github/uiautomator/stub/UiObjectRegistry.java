@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.support.test.wqhyy.UiObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named UiObjects handed out to clients, expiring after a TTL that is refreshed on each access
+ * and bounded in size by evicting the least recently used entry.
+ *
+ * Entries are kept in access order, which is also their expiry order while the TTL is
+ * unchanged, so expired entries are at the head: lookups drop them lazily and one shared sweeper thread trims the head
+ * periodically.
+ */
+public class UiObjectRegistry implements RpcMetrics.Collector {
+    public static final long DEFAULT_TTL = 60000;
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    private static final long SWEEP_INTERVAL = 5000;
+
+    private static class Entry {
+        final UiObject object;
+        long expiresAt;
+
+        Entry(UiObject object, long expiresAt) {
+            this.object = object;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final ScheduledExecutorService sweeper;
+    private long ttl = DEFAULT_TTL;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    public UiObjectRegistry() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "UiObjectRegistrySweeper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (UiObjectRegistry.this) {
+                    expire(System.currentTimeMillis());
+                }
+            }
+        }, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Name an UiObject and cache it, along with the node it resolves to.
+     *
+     * @return the name of the UiObject
+     */
+    public synchronized String add(UiObject obj) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        String key = UUID.randomUUID().toString();
+        entries.put(key, new Entry(obj instanceof CachedUiObject ? obj : new CachedUiObject(obj), now + ttl));
+        while (entries.size() > maxSize) {
+            Iterator<Entry> eldest = entries.values().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+        return key;
+    }
+
+    /**
+     * @return the UiObject, or null if the name is unknown or has expired
+     */
+    public synchronized UiObject get(String key) {
+        long now = System.currentTimeMillis();
+        expire(now);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= now) {
+            // outlived a TTL that was shortened after it was added
+            entries.remove(key);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.expiresAt = now + ttl;
+        return entry.object;
+    }
+
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized String[] keys() {
+        expire(System.currentTimeMillis());
+        return entries.keySet().toArray(new String[entries.size()]);
+    }
+
+    /**
+     * Applies a new TTL and size bound; existing entries keep their expiry until next accessed.
+     */
+    public synchronized void configure(long ttl, int maxSize) {
+        if (ttl > 0)
+            this.ttl = ttl;
+        if (maxSize > 0)
+            this.maxSize = maxSize;
+        while (entries.size() > this.maxSize) {
+            Iterator<Entry> eldest = entries.values().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized UiObjectRegistryInfo getInfo() {
+        expire(System.currentTimeMillis());
+        UiObjectRegistryInfo info = new UiObjectRegistryInfo();
+        info.setTtl(ttl);
+        info.setMaxSize(maxSize);
+        info.setSize(entries.size());
+        info.setHits(hits);
+        info.setMisses(misses);
+        info.setEvictions(evictions);
+        info.setExpirations(expirations);
+        info.setNodeHits(CachedUiObject.getHits());
+        info.setNodeMisses(CachedUiObject.getMisses());
+        return info;
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    @Override
+    public void collect(StringBuilder out) {
+        UiObjectRegistryInfo info = getInfo();
+        out.append("# TYPE uiautomator_uiobjects gauge\n");
+        out.append("uiautomator_uiobjects ").append(info.getSize()).append('\n');
+        collectCounter(out, "hits", info.getHits());
+        collectCounter(out, "misses", info.getMisses());
+        collectCounter(out, "evictions", info.getEvictions());
+        collectCounter(out, "expirations", info.getExpirations());
+        collectCounter(out, "node_hits", info.getNodeHits());
+        collectCounter(out, "node_misses", info.getNodeMisses());
+    }
+
+    private static void collectCounter(StringBuilder out, String name, long value) {
+        out.append("# TYPE uiautomator_uiobject_").append(name).append("_total counter\n");
+        out.append("uiautomator_uiobject_").append(name).append("_total ").append(value).append('\n');
+    }
+
+    // Entries are in expiry order, so stop at the first live one.
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().expiresAt > now)
+                break;
+            it.remove();
+            expirations++;
+        }
+    }
+}
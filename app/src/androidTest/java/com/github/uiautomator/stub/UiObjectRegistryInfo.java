@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+/**
+ * Settings and statistics of the {@link UiObjectRegistry}; ttl and maxSize can be set.
+ */
+public class UiObjectRegistryInfo {
+
+    public long getTtl() {
+        return _ttl;
+    }
+
+    public void setTtl(long _ttl) {
+        this._ttl = _ttl;
+    }
+
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    public void setMaxSize(int _maxSize) {
+        this._maxSize = _maxSize;
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    public void setSize(int _size) {
+        this._size = _size;
+    }
+
+    public long getHits() {
+        return _hits;
+    }
+
+    public void setHits(long _hits) {
+        this._hits = _hits;
+    }
+
+    public long getMisses() {
+        return _misses;
+    }
+
+    public void setMisses(long _misses) {
+        this._misses = _misses;
+    }
+
+    public long getEvictions() {
+        return _evictions;
+    }
+
+    public void setEvictions(long _evictions) {
+        this._evictions = _evictions;
+    }
+
+    public long getExpirations() {
+        return _expirations;
+    }
+
+    public void setExpirations(long _expirations) {
+        this._expirations = _expirations;
+    }
+
+    public long getNodeHits() {
+        return _nodeHits;
+    }
+
+    public void setNodeHits(long _nodeHits) {
+        this._nodeHits = _nodeHits;
+    }
+
+    public long getNodeMisses() {
+        return _nodeMisses;
+    }
+
+    public void setNodeMisses(long _nodeMisses) {
+        this._nodeMisses = _nodeMisses;
+    }
+
+    private long _ttl;
+    private int _maxSize;
+    private int _size;
+    private long _hits;
+    private long _misses;
+    private long _evictions;
+    private long _expirations;
+    private long _nodeHits;
+    private long _nodeMisses;
+}
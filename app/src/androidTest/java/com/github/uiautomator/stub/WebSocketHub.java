@@ -0,0 +1,222 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import android.app.Notification;
+import android.view.accessibility.AccessibilityEvent;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the open JSON-RPC web sockets, pushes accessibility events and async call
+ * results to the subscribed ones and pings all of them so idle sockets outlive the server read timeout.
+ *
+ * Pushes and pings run on a single thread, so events reach a client in the order they happened.
+ */
+public class WebSocketHub implements AccessibilityEventListener.Subscriber {
+    public static final String EVENT_METHOD = "accessibilityEvent";
+    public static final String ASYNC_RESULT_METHOD = "asyncResult";
+    // Subscription mask matching every event type.
+    public static final int ALL_EVENTS = 0xFFFFFFFF;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper binaryMapper = new ObjectMapper(new CBORFactory());
+    private final Map<JsonRpcWebSocket, Subscription> sockets = new ConcurrentHashMap<JsonRpcWebSocket, Subscription>();
+
+    private static class Subscription {
+        final int eventTypes;
+        final boolean asyncResults;
+        final boolean binary;
+
+        Subscription(int eventTypes, boolean asyncResults, boolean binary) {
+            this.eventTypes = eventTypes;
+            this.asyncResults = asyncResults;
+            this.binary = binary;
+        }
+    }
+    private final ScheduledExecutorService executor;
+
+    public WebSocketHub(long pingInterval) {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AutomatorWebSocketHub");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (JsonRpcWebSocket socket : sockets.keySet()) {
+                    if (!socket.isOpen())
+                        continue;
+                    try {
+                        socket.ping(new byte[0]);
+                    } catch (IOException e) {
+                        Log.d("WebSocket ping failed: " + e.getMessage());
+                    }
+                }
+            }
+        }, pingInterval, pingInterval, TimeUnit.MILLISECONDS);
+        AccessibilityEventListener.addSubscriber(this);
+    }
+
+    /**
+     * Registers a socket as soon as its upgrade is accepted, so it counts towards
+     * {@link #size()} before the handshake has been sent.
+     */
+    public void register(JsonRpcWebSocket socket) {
+        sockets.put(socket, new Subscription(0, false, false));
+    }
+
+    /**
+     * @return the number of sockets registered and not yet closed
+     */
+    public int size() {
+        return sockets.size();
+    }
+
+    public void unregister(JsonRpcWebSocket socket) {
+        sockets.remove(socket);
+    }
+
+    /**
+     * Pushes events whose type matches the mask, and optionally the results of async calls, to
+     * the socket as CBOR binary frames or JSON text frames. A mask of 0 without async results
+     * unsubscribes it.
+     */
+    public void subscribe(JsonRpcWebSocket socket, int eventTypes, boolean asyncResults, boolean binary) {
+        if (sockets.containsKey(socket))
+            sockets.put(socket, new Subscription(eventTypes, asyncResults, binary));
+    }
+
+    /**
+     * Pushes the response of a finished async call to the sockets subscribed to async results.
+     */
+    public void publishAsyncResult(String handle, JsonNode response) {
+        Map<JsonRpcWebSocket, Boolean> targets = new HashMap<JsonRpcWebSocket, Boolean>();
+        for (Map.Entry<JsonRpcWebSocket, Subscription> entry : sockets.entrySet()) {
+            if (entry.getValue().asyncResults)
+                targets.put(entry.getKey(), entry.getValue().binary);
+        }
+        ObjectNode params = mapper.createObjectNode();
+        params.put("handle", handle);
+        params.set("response", response);
+        push(targets, notification(ASYNC_RESULT_METHOD, params));
+    }
+
+    public void shutdown() {
+        AccessibilityEventListener.removeSubscriber(this);
+        executor.shutdownNow();
+        sockets.clear();
+    }
+
+    @Override
+    public void onAccessibilityEvent(AccessibilityEvent event) {
+        Map<JsonRpcWebSocket, Boolean> targets = new HashMap<JsonRpcWebSocket, Boolean>();
+        for (Map.Entry<JsonRpcWebSocket, Subscription> entry : sockets.entrySet()) {
+            Subscription subscription = entry.getValue();
+            if ((subscription.eventTypes & event.getEventType()) != 0)
+                targets.put(entry.getKey(), subscription.binary);
+        }
+        if (!targets.isEmpty())
+            push(targets, notification(EVENT_METHOD, toParams(event)));
+    }
+
+    private void push(final Map<JsonRpcWebSocket, Boolean> targets, ObjectNode notification) {
+        if (targets.isEmpty())
+            return;
+        final String textMessage;
+        final byte[] binaryMessage;
+        try {
+            textMessage = targets.containsValue(false) ? mapper.writeValueAsString(notification) : null;
+            binaryMessage = targets.containsValue(true) ? binaryMapper.writeValueAsBytes(notification) : null;
+        } catch (IOException e) {
+            Log.e("Could not serialize notification: " + e.getMessage());
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<JsonRpcWebSocket, Boolean> target : targets.entrySet()) {
+                    JsonRpcWebSocket socket = target.getKey();
+                    if (!socket.isOpen())
+                        continue;
+                    try {
+                        if (target.getValue())
+                            socket.send(binaryMessage);
+                        else
+                            socket.send(textMessage);
+                    } catch (IOException e) {
+                        Log.d("WebSocket push failed: " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private ObjectNode notification(String method, ObjectNode params) {
+        ObjectNode notification = mapper.createObjectNode();
+        notification.put("jsonrpc", "2.0");
+        notification.put("method", method);
+        notification.putArray("params").add(params);
+        return notification;
+    }
+
+    // The event is recycled once the listener returns, so everything is copied out here.
+    private ObjectNode toParams(AccessibilityEvent event) {
+        ObjectNode params = mapper.createObjectNode();
+        params.put("eventType", event.getEventType());
+        params.put("eventTypeName", AccessibilityEvent.eventTypeToString(event.getEventType()));
+        params.put("eventTime", event.getEventTime());
+        params.put("windowId", event.getWindowId());
+        params.put("packageName", toString(event.getPackageName()));
+        params.put("className", toString(event.getClassName()));
+        params.put("contentDescription", toString(event.getContentDescription()));
+        ArrayNode text = params.putArray("text");
+        for (CharSequence t : event.getText())
+            text.add(toString(t));
+        if (event.getEventType() == AccessibilityEvent.TYPE_NOTIFICATION_STATE_CHANGED)
+            params.put("toast", !(event.getParcelableData() instanceof Notification));
+        return params;
+    }
+
+    private static String toString(CharSequence cs) {
+        return cs == null ? null : cs.toString();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2015 xiaocong@gmail.com
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.uiautomator.stub;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Runs the NanoHTTPD client connections on a bounded pool of reusable worker threads.
+ * <p>
+ * The default runner of NanoHTTPD starts a new thread for every accepted socket. With
+ * HTTP/1.1 keep-alive a worker serves all requests of its connection, so no thread is created
+ * per request. Workers are started on demand and stop after being idle for a minute, so a pool
+ * large enough for many idle keep-alive connections costs nothing while they are not open.
+ */
+public class WorkerPoolAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final long IDLE_WORKER_TIMEOUT = 60; // seconds
+
+    private final ThreadPoolExecutor executor;
+    private final List<NanoHTTPD.ClientHandler> running =
+            Collections.synchronizedList(new ArrayList<NanoHTTPD.ClientHandler>());
+
+    /**
+     * @param poolSize  max number of connections served at the same time.
+     * @param queueSize max number of accepted connections waiting for a free worker.
+     */
+    public WorkerPoolAsyncRunner(int poolSize, int queueSize) {
+        executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_WORKER_TIMEOUT, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "AutomatorHttpWorker-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void closeAll() {
+        List<NanoHTTPD.ClientHandler> handlers;
+        synchronized (running) {
+            handlers = new ArrayList<NanoHTTPD.ClientHandler>(running);
+        }
+        for (NanoHTTPD.ClientHandler handler : handlers) {
+            handler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler handler) {
+        running.remove(handler);
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler handler) {
+        running.add(handler);
+        try {
+            executor.execute(handler);
+        } catch (RejectedExecutionException e) {
+            Log.e("Too many connections, drop the new one: " + e.getMessage());
+            running.remove(handler);
+            handler.close();
+        }
+    }
+}